@@ -2,11 +2,9 @@ package com.ecs160.BlueSkySchema;
 
 import com.ecs160.persistence.*;
 
-import java.math.BigInteger;
 import java.time.Instant;
 import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /*
@@ -15,11 +13,20 @@ import java.util.List;
  */
 @Persistable
 public class Post {
+    /*
+     * Null until an id is assigned, so that persisting a post without one fails with an IdException instead of
+     * silently writing it under a default id and overwriting another post
+     */
     @PersistableId
     private Integer postId;
 
-    @PersistableField
-    private String dateTime;
+    /*
+     * Creation time in epoch milliseconds. Parsed once on ingest rather than kept as the ISO 8601 string,
+     * so a post holds no per-post date string and persists as a number.
+     * Posts persisted before this field existed only have the ISO 8601 string, under "dateTime".
+     */
+    @PersistableField(legacyName = "dateTime", legacyParser = "parseDateTime")
+    private long createdAt;
 
     public Boolean getBlocked() {
         return blocked;
@@ -40,6 +47,12 @@ public class Post {
     @PersistableField
     private String postContent;
 
+    /*
+     * AT URI of the post as given by the feed, e.g. "at://did:plc:.../app.bsky.feed.post/...", which also names its
+     * author. Not persisted; it tells apart posts with the same content when a feed is ingested.
+     */
+    private String uri;
+
     /* A post may have a list of replies */
     @PersistableListField(className = "com.ecs160.BlueSkySchema.Post")
     // We implement the extra credit portion, and thus we enable LazyLoad on the replies list
@@ -50,8 +63,8 @@ public class Post {
      * Default no-args constructor needed for reliable dynamic object instantiation in persistence code
      */
     public Post() {
-        // Use epoch time in UTC as a sane default
-        this(0, OffsetDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC).toString());
+        // The id is left unset and the creation time defaults to the epoch
+        this.replies = new ArrayList<Post>(0);
     }
 
     /**
@@ -60,9 +73,21 @@ public class Post {
      * @param isoDateTimeString ISO 8601 date & time string
      */
     public Post(int id, String isoDateTimeString) {
+        this(id, parseDateTime(isoDateTimeString), null, 0);
+    }
+
+    /**
+     * Initializes a Post with everything known at parse time, so that no field is assigned twice.
+     * @param id unique Post identifier
+     * @param createdAtMillis creation time in epoch milliseconds
+     * @param postText text content of the post comment
+     * @param replyCount expected number of replies, used to presize the replies list
+     */
+    public Post(int id, long createdAtMillis, String postText, int replyCount) {
         this.postId = id;
-        this.dateTime = isoDateTimeString;
-        this.replies = new LinkedList<Post>();
+        this.createdAt = createdAtMillis;
+        this.postContent = postText;
+        this.replies = new ArrayList<Post>(replyCount);
     }
 
     /**
@@ -72,24 +97,59 @@ public class Post {
      * @param postText text content of the post comment
      */
     public Post(int id, String isoDateTimeString, String postText) {
-        this(id, isoDateTimeString);
-        setPostText(postText);
+        this(id, parseDateTime(isoDateTimeString), postText, 0);
+    }
+
+    /**
+     * Parse an ISO 8601 date & time string with a zone offset, as found in BlueSky records
+     * @param isoDateTimeString ISO 8601 date & time string
+     * @return date & time in epoch milliseconds
+     * @throws java.time.format.DateTimeParseException If the string is not an ISO 8601 date & time with offset
+     */
+    public static long parseDateTime(String isoDateTimeString) {
+        return OffsetDateTime.parse(isoDateTimeString).toInstant().toEpochMilli();
     }
 
     /**
      * Getter method to return the unique identifier of the Post object.
-     * @return unique Post identifier
+     * @return unique Post identifier, or null if it has not been assigned
      */
-    public int getId() {
+    public Integer getId() {
         return this.postId;
     }
 
+    /**
+     * Setter method to set the unique identifier of the Post object, e.g. when it is bound from a request body.
+     * @param id unique Post identifier, or null to unset it
+     */
+    public void setId(Integer id) {
+        this.postId = id;
+    }
+
     /**
      * Getter method to return the date & time of the Post object.
-     * @return date & time of Post object
+     * The string is formatted on demand, in UTC: only the instant is kept, so the zone offset of the original
+     * string is not, e.g. "2024-05-01T12:00:00+02:00" comes back as "2024-05-01T10:00:00Z".
+     * @return ISO 8601 date & time of Post object
      */
     public String getDateTime() {
-        return this.dateTime;
+        return Instant.ofEpochMilli(this.createdAt).toString();
+    }
+
+    /**
+     * Getter method to return the date & time of the Post object in epoch milliseconds.
+     * @return creation time in epoch milliseconds
+     */
+    public long getCreatedAtMillis() {
+        return this.createdAt;
+    }
+
+    /**
+     * Setter method to set the date & time of the Post object in epoch milliseconds.
+     * @param createdAtMillis creation time in epoch milliseconds
+     */
+    public void setCreatedAtMillis(long createdAtMillis) {
+        this.createdAt = createdAtMillis;
     }
 
     /**
@@ -108,6 +168,22 @@ public class Post {
         return this.postContent;
     }
 
+    /**
+     * Getter method to return the AT URI of the post.
+     * @return AT URI of the post, or null if it is not known
+     */
+    public String getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Setter method to set the AT URI of the post.
+     * @param uri AT URI of the post, or null if it is not known
+     */
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
     /**
      * Method to add reply to replies list in this post
      * @param post new Post object to add to replies
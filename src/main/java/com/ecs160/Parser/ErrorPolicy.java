@@ -0,0 +1,13 @@
+package com.ecs160.Parser;
+
+/*
+ * What the Parser does when a thread or reply in the feed is malformed.
+ */
+public enum ErrorPolicy {
+    // Skip the record and count it in the parse report
+    SKIP,
+    // Skip the record, count it, and keep a description of it in the parse report
+    COLLECT,
+    // Stop parsing with a ParserException
+    FAIL_FAST
+}
@@ -0,0 +1,52 @@
+package com.ecs160.Parser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Thread-safe source of unique post ids that can be shared by several Parser objects.
+ * Parsers reserve ids in blocks, so that parsers running on different threads only touch the shared counter once
+ * per block rather than once per post. Subclasses may reserve blocks from a counter outside this process instead.
+ */
+public class IdAllocator {
+    private final AtomicInteger nextId;
+
+    /**
+     * Instantiate a new id allocator starting at id 0
+     */
+    public IdAllocator() {
+        this(0);
+    }
+
+    /**
+     * Instantiate a new id allocator
+     * @param firstId first id to hand out
+     */
+    public IdAllocator(int firstId) {
+        this.nextId = new AtomicInteger(firstId);
+    }
+
+    /**
+     * Reserve a block of consecutive ids
+     * @param blockSize number of ids to reserve
+     * @return first id of the reserved block
+     */
+    public int reserveBlock(int blockSize) {
+        return nextId.getAndAdd(blockSize);
+    }
+
+    /**
+     * Get the next id that has not been reserved yet
+     * @return next unreserved id
+     */
+    public int peekNextId() {
+        return nextId.get();
+    }
+
+    /**
+     * Make sure no id below the given one is handed out from now on, e.g. when resuming an interrupted ingest
+     * @param minNextId lowest id that may still be handed out
+     */
+    public void advanceTo(int minNextId) {
+        nextId.accumulateAndGet(minNextId, Math::max);
+    }
+}
@@ -0,0 +1,11 @@
+package com.ecs160.Parser;
+
+/*
+ * How the Parser reads a JSON file from disk. Both modes decode the file as UTF-8.
+ */
+public enum InputMode {
+    // Buffered stream reader, copying bytes through the Java heap
+    READER,
+    // Memory-mapped file, decoded straight from the page cache
+    MAPPED
+}
@@ -0,0 +1,148 @@
+package com.ecs160.Parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reader over a memory-mapped UTF-8 file.
+ * The file is mapped one window at a time, since a single mapping is limited to 2 GB, and bytes are decoded
+ * straight from the mapping into the caller's buffer. Unlike FileReader, no intermediate byte[] is filled through
+ * read() system calls, and the charset does not depend on the platform default.
+ */
+public class MappedFileReader extends Reader {
+    // Default size of each mapped window
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+    private ByteBuffer window;
+    // File position of the start of the current window
+    private long windowStart;
+    private boolean isEndOfInput;
+    // Buffer that single chars are decoded through, and the second half of a surrogate pair left over in it
+    private final char[] pairBuffer;
+    private boolean hasLeftoverChar;
+
+    /**
+     * Open a memory-mapped reader with the default window size
+     * @param file file to read
+     * @throws IOException If the file cannot be opened
+     */
+    public MappedFileReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Open a memory-mapped reader
+     * @param file file to read
+     * @param windowSize number of bytes mapped at a time
+     * @throws IOException If the file cannot be opened
+     */
+    public MappedFileReader(Path file, int windowSize) throws IOException {
+        if (windowSize < 16) {
+            throw new IllegalArgumentException("Window size must be at least 16 bytes");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        // Same handling of malformed input as InputStreamReader
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.windowStart = 0;
+        this.isEndOfInput = false;
+        this.pairBuffer = new char[2];
+        this.hasLeftoverChar = false;
+        mapWindow(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (hasLeftoverChar) {
+            cbuf[off] = pairBuffer[1];
+            hasLeftoverChar = false;
+            return 1;
+        }
+        if (len > 1) {
+            return decode(cbuf, off, len);
+        }
+
+        // The decoder only writes a surrogate pair whole, so a single char is decoded through a buffer of two
+        int charsRead = decode(pairBuffer, 0, 2);
+        if (charsRead == -1) {
+            return -1;
+        }
+        cbuf[off] = pairBuffer[0];
+        hasLeftoverChar = charsRead == 2;
+        return 1;
+    }
+
+    /**
+     * Decode chars from the mapped windows into the given buffer
+     * @param cbuf destination buffer
+     * @param off offset at which to start storing chars
+     * @param len maximum number of chars to decode, at least 2 so that a surrogate pair always fits
+     * @return number of chars decoded, or -1 at the end of the file
+     * @throws IOException If the file cannot be mapped or holds malformed input
+     */
+    private int decode(char[] cbuf, int off, int len) throws IOException {
+        if (isEndOfInput) {
+            return -1;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            boolean isLastWindow = windowStart + window.limit() >= fileSize;
+            CoderResult result = decoder.decode(window, out, isLastWindow);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                break;
+            }
+
+            // Underflow: the window is used up, apart from at most the first bytes of a character split across windows
+            if (isLastWindow) {
+                decoder.flush(out);
+                isEndOfInput = true;
+                break;
+            }
+            mapWindow(windowStart + window.position());
+        }
+
+        int charsRead = out.position() - off;
+        return charsRead == 0 && isEndOfInput ? -1 : charsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Map the window starting at the given file position
+     * @param start file position of the first byte to map
+     * @throws IOException If the file cannot be mapped
+     */
+    private void mapWindow(long start) throws IOException {
+        long size = Math.min(windowSize, fileSize - start);
+        windowStart = start;
+        // An empty file cannot be mapped, but decoding from an empty buffer still ends the input properly
+        window = size > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, start, size) : ByteBuffer.allocate(0);
+    }
+}
@@ -0,0 +1,173 @@
+package com.ecs160.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Counters and collected errors of a single parse run, and the place where the run's error policy is applied.
+ * A report is updated by the one thread running the parse, and should be read once the run has finished.
+ */
+public class ParseReport {
+    // Maximum number of error descriptions kept under ErrorPolicy.COLLECT
+    public static final int MAX_COLLECTED_ERRORS = 1000;
+
+    private final ErrorPolicy errorPolicy;
+    private final List<String> errors;
+    // Meters that each record is also counted in, or null
+    private final ParserMetrics metrics;
+    private int threadsParsed;
+    private int threadsSkipped;
+    private int repliesParsed;
+    private int repliesSkipped;
+    private int errorsDropped;
+
+    /**
+     * Instantiate a new, empty parse report
+     * @param errorPolicy policy applied to malformed records
+     */
+    public ParseReport(ErrorPolicy errorPolicy) {
+        this(errorPolicy, null);
+    }
+
+    /**
+     * Instantiate a new, empty parse report that also counts each record in the given meters
+     * @param errorPolicy policy applied to malformed records
+     * @param metrics parser meters, or null
+     */
+    ParseReport(ErrorPolicy errorPolicy, ParserMetrics metrics) {
+        this.errorPolicy = errorPolicy;
+        this.errors = new ArrayList<String>();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Count a thread that was parsed successfully
+     */
+    void recordThread() {
+        threadsParsed += 1;
+        if (metrics != null) {
+            metrics.recordThread();
+        }
+    }
+
+    /**
+     * Count a reply that was parsed successfully
+     */
+    void recordReply() {
+        repliesParsed += 1;
+        if (metrics != null) {
+            metrics.recordReply();
+        }
+    }
+
+    /**
+     * Handle a malformed thread according to the error policy
+     * @param location location of the thread in the feed
+     * @param reason why the thread is malformed
+     * @throws ParserException If the error policy is FAIL_FAST
+     */
+    void recordSkippedThread(String location, String reason) throws ParserException {
+        threadsSkipped += 1;
+        if (metrics != null) {
+            metrics.recordSkippedThread();
+        }
+        recordError(location, reason);
+    }
+
+    /**
+     * Handle a malformed reply according to the error policy
+     * @param location location of the reply in the feed
+     * @param reason why the reply is malformed
+     * @throws ParserException If the error policy is FAIL_FAST
+     */
+    void recordSkippedReply(String location, String reason) throws ParserException {
+        repliesSkipped += 1;
+        if (metrics != null) {
+            metrics.recordSkippedReply();
+        }
+        recordError(location, reason);
+    }
+
+    /**
+     * Apply the error policy to a malformed record
+     * @param location location of the record in the feed
+     * @param reason why the record is malformed
+     * @throws ParserException If the error policy is FAIL_FAST
+     */
+    private void recordError(String location, String reason) throws ParserException {
+        if (errorPolicy == ErrorPolicy.FAIL_FAST) {
+            throw new ParserException(location + ": " + reason);
+        }
+        if (errorPolicy == ErrorPolicy.COLLECT) {
+            // Bound the report, so that a feed full of bad records does not exhaust memory
+            if (errors.size() < MAX_COLLECTED_ERRORS) {
+                errors.add(location + ": " + reason);
+            } else {
+                errorsDropped += 1;
+            }
+        }
+    }
+
+    /**
+     * Getter for error policy of the run
+     * @return error policy
+     */
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * Getter for number of threads parsed
+     * @return number of threads parsed
+     */
+    public int getThreadsParsed() {
+        return threadsParsed;
+    }
+
+    /**
+     * Getter for number of malformed threads skipped
+     * @return number of threads skipped
+     */
+    public int getThreadsSkipped() {
+        return threadsSkipped;
+    }
+
+    /**
+     * Getter for number of replies parsed
+     * @return number of replies parsed
+     */
+    public int getRepliesParsed() {
+        return repliesParsed;
+    }
+
+    /**
+     * Getter for number of malformed replies skipped
+     * @return number of replies skipped
+     */
+    public int getRepliesSkipped() {
+        return repliesSkipped;
+    }
+
+    /**
+     * Getter for descriptions of malformed records, collected under ErrorPolicy.COLLECT
+     * @return collected errors, at most MAX_COLLECTED_ERRORS
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Getter for number of errors not collected because the limit was reached
+     * @return number of dropped errors
+     */
+    public int getErrorsDropped() {
+        return errorsDropped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d threads parsed, %d skipped; %d replies parsed, %d skipped",
+                threadsParsed, threadsSkipped, repliesParsed, repliesSkipped);
+    }
+}
@@ -2,44 +2,112 @@ package com.ecs160.Parser;
 
 import com.ecs160.BlueSkySchema.Post;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
-import java.util.Stack;
-
-
-import static java.lang.System.exit;
+import java.util.function.Consumer;
 
 /*
- * Recursively parse posts and their replies from the BlueSky JSON dump into a Java object tree.
+ * Parse posts and their replies, to any depth, from the BlueSky JSON dump into a Java object tree.
+ * Reply trees are walked with an explicit stack rather than call recursion, so deep threads cannot overflow the stack.
  */
 public class Parser {
-    // id counter to assign unique id to each parsed post
+    // Default number of ids reserved from the allocator at a time
+    public static final int DEFAULT_ID_BLOCK_SIZE = 1024;
+    // Reported for posts without an object "post.record" holding a valid ISO 8601 "createdAt"
+    static final String INVALID_POST_REASON = "no \"post.record\" with a valid \"createdAt\"";
+
+    // Allocator that id blocks are reserved from; may be shared with other parsers
+    private final IdAllocator idAllocator;
+    private final int idBlockSize;
+    // Next id to assign and end (exclusive) of the currently reserved block
     private int idCounter = 0;
+    private int idBlockEnd = 0;
+    // How JSON files on disk are read
+    private InputMode inputMode = InputMode.READER;
+    // What to do with malformed records, and the counters of the most recent run
+    private ErrorPolicy errorPolicy = ErrorPolicy.SKIP;
+    private ParseReport lastReport = new ParseReport(ErrorPolicy.SKIP);
+    // Meters that parse runs are recorded in, or null
+    private ParserMetrics metrics;
+
+    /**
+     * Instantiate a parser with its own id allocator, assigning ids from 0
+     */
+    public Parser() {
+        this(new IdAllocator(), DEFAULT_ID_BLOCK_SIZE);
+    }
+
+    /**
+     * Instantiate a parser that reserves ids from a shared allocator.
+     * A Parser object itself is not thread-safe, but parsers on different threads may share one allocator,
+     * and the ids they assign are then globally unique.
+     * @param idAllocator allocator to reserve ids from
+     * @param idBlockSize number of ids reserved at a time
+     */
+    public Parser(IdAllocator idAllocator, int idBlockSize) {
+        if (idBlockSize < 1) {
+            throw new IllegalArgumentException("Id block size must be at least 1");
+        }
+        this.idAllocator = idAllocator;
+        this.idBlockSize = idBlockSize;
+    }
+
+    /**
+     * Set how JSON files on disk are read by parseThreads() and the streaming methods.
+     * Resource files are always read through a stream reader.
+     * @param inputMode input mode
+     */
+    public void setInputMode(InputMode inputMode) {
+        this.inputMode = inputMode;
+    }
+
+    /**
+     * Set what to do with malformed threads and replies in later parse runs
+     * @param errorPolicy error policy
+     */
+    public void setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+    }
 
     /**
-     * Recursively parse all the threads and replies that exist in the JSON file into Java objects
+     * Set the meters that later parse runs are recorded in
+     * @param metrics parser meters, or null to record nothing
+     */
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Getter for the report of the most recent parse run, which also counts replies parsed through parseReply()
+     * @return parse report
+     */
+    public ParseReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Parse all the threads and replies, including nested replies, that exist in the JSON file into Java objects.
+     * Malformed threads and replies are handled according to the error policy, and counted in getLastReport().
      * @param jsonFileName name of the JSON file to parse
      * @return List of parsed threads from the JSON file
+     * @throws ParserException If the document has no "feed" array, or a record is malformed under FAIL_FAST
      */
     public LinkedList<Post> parseThreads(boolean isInternal, String jsonFileName) throws Exception {
+        long startNanos = System.nanoTime();
         JsonElement element;
-
-        // Check whether provided JSON file is internal (in resources) or external
-        if (isInternal) {
-            InputStream jsonStream = JsonDeserializer.class.getClassLoader().getResourceAsStream(jsonFileName);
-            if (jsonStream == null) {
-                throw new ParserException("Resource JSON file \"" + jsonFileName + "\" not found");
-            }
-
-            element = JsonParser.parseReader(new InputStreamReader(jsonStream));
-        } else {
-            // Implicitly throws FileNotFoundException if filepath not found
-            FileReader jsonFile = new FileReader(jsonFileName);
-            BufferedReader bufJsonReader = new BufferedReader(jsonFile);
-            element = JsonParser.parseReader(bufJsonReader);
+        try (JsonReader jsonReader = newJsonReader(openReader(isInternal, jsonFileName))) {
+            element = JsonParser.parseReader(jsonReader);
         }
+        lastReport = new ParseReport(errorPolicy, metrics);
 
         LinkedList<Post> threads = new LinkedList<Post>();
 
@@ -53,92 +121,329 @@ public class Parser {
         }
         JsonArray feedArray = jsonObject.get("feed").getAsJsonArray();
 
-        for (JsonElement feedObject : feedArray) {
+        for (int feedIndex = 0; feedIndex < feedArray.size(); feedIndex++) {
             // Parse top-level thread objects
-            JsonObject feedObjectJson = feedObject.getAsJsonObject();
-            if (feedObjectJson.has("thread") && feedObjectJson.get("thread").isJsonObject()) {
-                JsonObject thread = feedObjectJson.get("thread").getAsJsonObject();
-
-                /*
-                 * In case there are unexpected thread objects that are either missing fields or have fields with
-                 * unexpected data types, then simply skip the current post.
-                 */
-                if (!thread.has("post") || !thread.get("post").isJsonObject()) {
-                    continue;
-                }
-                JsonObject post = thread.get("post").getAsJsonObject();
+            JsonElement feedObject = feedArray.get(feedIndex);
+            JsonObject thread = feedObject.isJsonObject() ? getObject(feedObject.getAsJsonObject(), "thread") : null;
+            if (thread == null) {
+                lastReport.recordSkippedThread("feed[" + feedIndex + "]", "no \"thread\" object");
+                continue;
+            }
 
-                if (!post.has("record") || !post.get("record").isJsonObject()) {
-                    continue;
-                }
-                JsonObject record = post.get("record").getAsJsonObject();
+            /*
+             * In case there are unexpected thread objects that are either missing fields or have fields with
+             * unexpected data types, then the error policy decides whether to skip the current post.
+             */
+            JsonArray replies = getArray(thread, "replies");
+            Post postObj = parsePost(getObject(thread, "post"), replies != null ? replies.size() : 0);
+            if (postObj == null) {
+                lastReport.recordSkippedThread("feed[" + feedIndex + "]", INVALID_POST_REASON);
+                continue;
+            }
+            lastReport.recordThread();
 
-                if (!record.has("createdAt")) {
-                    continue;
-                }
+            if (replies != null) {
+                parseReplies(postObj, replies, "feed[" + feedIndex + "].thread.replies");
+            }
 
-                int id = getUniqueId();
-                Post postObj = new Post(
-                        id,
-                        record.get("createdAt").getAsString(),
-                        record.has("text") ? record.get("text").getAsString() : ""
-                );
-
-                if (thread.has("replies") && thread.get("replies").isJsonArray()) {
-                    JsonArray replies = thread.get("replies").getAsJsonArray();
-                    for (JsonElement reply : replies) {
-                        postObj.addReply(parseReply(reply));
-                    }
-                }
+            threads.add(postObj);
+        }
 
-                threads.add(postObj);
-            }
+        if (metrics != null) {
+            metrics.recordRun(false, inputSize(isInternal, jsonFileName), System.nanoTime() - startNanos);
         }
 
         return threads;
     }
 
     /**
-     * Parse a single reply
-     * @param jsonReply reply to parse
-     * @return parsed Reply object
+     * Stream the threads and replies that exist in the JSON file one thread at a time, instead of building the whole
+     * JSON tree in memory first. The caller must close the returned iterator.
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to parse
+     * @return iterator over parsed threads from the JSON file
+     * @throws Exception If the file cannot be opened or does not contain a "feed" array
      */
-    public Post parseReply(JsonElement jsonReply) {
-            JsonObject reply = jsonReply.getAsJsonObject();
-            if (!reply.has("post") || !reply.get("post").isJsonObject()) {
-                System.out.println("Invalid JSON");
-                exit(0);
+    public ThreadIterator streamThreads(boolean isInternal, String jsonFileName) throws Exception {
+        return streamThreads(isInternal, jsonFileName, 0);
+    }
+
+    /**
+     * Stream the threads and replies that exist in the JSON file, starting at the given element of the "feed" array.
+     * The skipped elements are scanned over without being parsed into posts, and no ids are assigned to them.
+     * The caller must close the returned iterator.
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to parse
+     * @param startFeedIndex index of the first "feed" element to parse
+     * @return iterator over parsed threads from the JSON file
+     * @throws Exception If the file cannot be opened or does not contain a "feed" array
+     */
+    public ThreadIterator streamThreads(boolean isInternal, String jsonFileName, int startFeedIndex) throws Exception {
+        Reader jsonReader = openReader(isInternal, jsonFileName);
+        try {
+            lastReport = new ParseReport(errorPolicy, metrics);
+            ThreadIterator threads = new ThreadIterator(this, newJsonReader(jsonReader), lastReport);
+            if (metrics != null) {
+                // The run is recorded once the caller closes the iterator
+                threads.setRunMetrics(metrics, inputSize(isInternal, jsonFileName));
+            }
+            threads.skipFeedItems(startFeedIndex);
+            return threads;
+        } catch (Exception ex) {
+            jsonReader.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stream the threads and replies that exist in the JSON file to the given callback, one thread at a time
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to parse
+     * @param threadConsumer callback receiving each parsed thread
+     * @throws Exception If the file cannot be opened or does not contain a "feed" array
+     */
+    public void forEachThread(boolean isInternal, String jsonFileName, Consumer<Post> threadConsumer) throws Exception {
+        try (ThreadIterator threads = streamThreads(isInternal, jsonFileName)) {
+            while (threads.hasNext()) {
+                threadConsumer.accept(threads.next());
             }
-            JsonObject post = reply.get("post").getAsJsonObject();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (UncheckedParserException ex) {
+            throw ex.getCause();
+        }
+    }
 
-            if (!post.has("record") || !post.get("record").isJsonObject()) {
-                System.out.println("Invalid JSON");
-                exit(0);
+    /**
+     * Open the JSON file for reading
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to open
+     * @return reader over the JSON file
+     * @throws Exception If the file cannot be found
+     */
+    private Reader openReader(boolean isInternal, String jsonFileName) throws Exception {
+        // Check whether provided JSON file is internal (in resources) or external
+        if (isInternal) {
+            InputStream jsonStream = JsonDeserializer.class.getClassLoader().getResourceAsStream(jsonFileName);
+            if (jsonStream == null) {
+                throw new ParserException("Resource JSON file \"" + jsonFileName + "\" not found");
             }
-            JsonObject record = post.get("record").getAsJsonObject();
 
-            if (!record.has("createdAt")) {
-                System.out.println("Invalid JSON");
-                exit(0);
+            return new InputStreamReader(jsonStream, StandardCharsets.UTF_8);
+        }
+
+        // Implicitly throws NoSuchFileException if filepath not found
+        Path jsonFile = Paths.get(jsonFileName);
+        if (inputMode == InputMode.MAPPED) {
+            return new MappedFileReader(jsonFile);
+        }
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(jsonFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the size of the JSON file, for the bytes/s parse throughput
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file
+     * @return size in bytes, or -1 for resources, whose size is not known up front
+     * @throws IOException If the size of the file cannot be read
+     */
+    private static long inputSize(boolean isInternal, String jsonFileName) throws IOException {
+        return isInternal ? -1 : Files.size(Paths.get(jsonFileName));
+    }
+
+    /**
+     * Wrap a reader in a JSON reader without a nesting limit, since every level of replies nests the document
+     * three levels deeper. Neither parser recurses per nesting level, so deep documents are safe to read.
+     * @param jsonReader reader over the JSON document
+     * @return JSON reader
+     */
+    private static JsonReader newJsonReader(Reader jsonReader) {
+        JsonReader reader = new JsonReader(jsonReader);
+        reader.setNestingLimit(Integer.MAX_VALUE);
+        return reader;
+    }
+
+    /**
+     * Parse a single reply and its nested replies
+     * @param jsonReply reply to parse
+     * @return parsed Reply object, or null if the reply is malformed and skipped
+     * @throws ParserException If a reply is malformed and the error policy is FAIL_FAST
+     */
+    public Post parseReply(JsonElement jsonReply) throws ParserException {
+        JsonObject reply = jsonReply.isJsonObject() ? jsonReply.getAsJsonObject() : null;
+        JsonArray nestedReplies = reply != null ? getArray(reply, "replies") : null;
+        Post newReply = reply != null ? parsePost(getObject(reply, "post"), nestedReplies != null ? nestedReplies.size() : 0) : null;
+        if (newReply == null) {
+            lastReport.recordSkippedReply("reply", INVALID_POST_REASON);
+            return null;
+        }
+        lastReport.recordReply();
+
+        if (nestedReplies != null) {
+            parseReplies(newReply, nestedReplies, "reply.replies");
+        }
+        return newReply;
+    }
+
+    /**
+     * Parse a "replies" array and every reply nested below it, adding each reply to its parent post.
+     * The reply tree is walked with an explicit stack of arrays still to be parsed, so its depth is only limited by
+     * the heap. A malformed reply is dropped together with the replies nested below it.
+     * @param parent post that the replies belong to
+     * @param replies "replies" array to parse
+     * @param location location of the array in the feed, used to report malformed replies
+     * @throws ParserException If a reply is malformed and the error policy is FAIL_FAST
+     */
+    private void parseReplies(Post parent, JsonArray replies, String location) throws ParserException {
+        Deque<PendingReplies> pendingArrays = new ArrayDeque<PendingReplies>();
+        pendingArrays.push(new PendingReplies(parent, replies, location, null, 0));
+
+        while (!pendingArrays.isEmpty()) {
+            PendingReplies pending = pendingArrays.pop();
+            // Each array is parsed in full before any nested array, so replies keep their order under each parent
+            for (int replyIndex = 0; replyIndex < pending.replies.size(); replyIndex++) {
+                JsonElement jsonReply = pending.replies.get(replyIndex);
+                JsonObject reply = jsonReply.isJsonObject() ? jsonReply.getAsJsonObject() : null;
+                JsonArray nestedReplies = reply != null ? getArray(reply, "replies") : null;
+                Post newReply = reply != null ? parsePost(getObject(reply, "post"), nestedReplies != null ? nestedReplies.size() : 0) : null;
+                if (newReply == null) {
+                    lastReport.recordSkippedReply(pending.describe(replyIndex), INVALID_POST_REASON);
+                    continue;
+                }
+                lastReport.recordReply();
+                pending.parent.addReply(newReply);
+
+                if (nestedReplies != null && !nestedReplies.isEmpty()) {
+                    pendingArrays.push(new PendingReplies(newReply, nestedReplies, null, pending, replyIndex));
+                }
             }
+        }
+    }
 
-            int id = getUniqueId();
-            Post newReply = new Post(
-                    id,
-                    record.get("createdAt").getAsString(),
-                    record.has("text") ? record.get("text").getAsString() : ""
-            );
+    /**
+     * Parse the record of a "post" object into a new Post with a unique id.
+     * Each field is looked up once, and "createdAt" is parsed straight into epoch milliseconds.
+     * @param post "post" object, or null if it was missing
+     * @param replyCount number of replies, used to presize the replies list
+     * @return parsed post, or null if the post or its record is missing or "createdAt" is missing or malformed
+     */
+    private Post parsePost(JsonObject post, int replyCount) {
+        if (post == null) {
+            return null;
+        }
+        JsonObject record = getObject(post, "record");
+        if (record == null) {
+            return null;
+        }
 
-            return newReply;
+        JsonElement createdAt = record.get("createdAt");
+        if (createdAt == null || !createdAt.isJsonPrimitive()) {
+            return null;
+        }
+        long createdAtMillis;
+        try {
+            createdAtMillis = Post.parseDateTime(createdAt.getAsString());
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+        JsonElement text = record.get("text");
+        JsonElement uri = post.get("uri");
+
+        Post newPost = new Post(
+                getUniqueId(),
+                createdAtMillis,
+                text != null && text.isJsonPrimitive() ? text.getAsString() : "",
+                replyCount
+        );
+        newPost.setUri(uri != null && uri.isJsonPrimitive() ? uri.getAsString() : null);
+        return newPost;
+    }
+
+    /**
+     * Look up a member that is expected to be an object, with a single map lookup
+     * @param parent object to look up the member in
+     * @param name member name
+     * @return member object, or null if it is missing or not an object
+     */
+    private static JsonObject getObject(JsonObject parent, String name) {
+        JsonElement member = parent.get(name);
+        return member != null && member.isJsonObject() ? member.getAsJsonObject() : null;
+    }
+
+    /**
+     * Look up a member that is expected to be an array, with a single map lookup
+     * @param parent object to look up the member in
+     * @param name member name
+     * @return member array, or null if it is missing or not an array
+     */
+    private static JsonArray getArray(JsonObject parent, String name) {
+        JsonElement member = parent.get(name);
+        return member != null && member.isJsonArray() ? member.getAsJsonArray() : null;
+    }
+
+    /**
+     * Getter for the allocator that this parser reserves ids from
+     * @return id allocator
+     */
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
+    }
+
+    /**
+     * Continue assigning ids from at least the given id, e.g. after resuming an interrupted ingest.
+     * Any rest of the currently reserved block is dropped, so that no lower id is assigned afterwards.
+     * @param minNextId lowest id that may still be assigned
+     */
+    public void resumeIdsFrom(int minNextId) {
+        idAllocator.advanceTo(minNextId);
+        idCounter = 0;
+        idBlockEnd = 0;
     }
 
     /**
      * Get a new unique id from this current Parser object
      * @return new unique id
      */
-    private int getUniqueId() {
+    int getUniqueId() {
+        // Reserve a new block once the current one is used up
+        if (idCounter == idBlockEnd) {
+            idCounter = idAllocator.reserveBlock(idBlockSize);
+            idBlockEnd = idCounter + idBlockSize;
+        }
+
         int nextId = idCounter;
         idCounter += 1;
         return nextId;
     }
+
+    /*
+     * "replies" array whose replies still have to be parsed, and the post they belong to.
+     * The location of a nested array is kept as a link to its enclosing array, and only spelled out when a
+     * malformed reply is reported, so that deep trees do not build ever longer location strings.
+     */
+    private static final class PendingReplies {
+        private final Post parent;
+        private final JsonArray replies;
+        private final String rootLocation;
+        private final PendingReplies outer;
+        private final int outerIndex;
+
+        PendingReplies(Post parent, JsonArray replies, String rootLocation, PendingReplies outer, int outerIndex) {
+            this.parent = parent;
+            this.replies = replies;
+            this.rootLocation = rootLocation;
+            this.outer = outer;
+            this.outerIndex = outerIndex;
+        }
+
+        String describe(int replyIndex) {
+            StringBuilder location = new StringBuilder("[").append(replyIndex).append("]");
+            PendingReplies array = this;
+            while (array.outer != null) {
+                location.insert(0, "[" + array.outerIndex + "].replies");
+                array = array.outer;
+            }
+            return location.insert(0, array.rootLocation).toString();
+        }
+    }
 }
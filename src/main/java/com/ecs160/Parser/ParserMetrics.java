@@ -0,0 +1,98 @@
+package com.ecs160.Parser;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Micrometer meters of the parser, shared by every Parser it is given to.
+ * Posts are counted as each one is parsed, so throughput is visible while a long streaming run is still going;
+ * the bytes of the input and the duration are recorded once a run finishes. Rates (posts/s, bytes/s) are derived
+ * from the counters by the metrics backend.
+ *
+ * Meters are registered once, up front, so recording only costs a counter increment.
+ */
+public class ParserMetrics {
+    private final Counter threadsParsed;
+    private final Counter repliesParsed;
+    private final Counter threadsSkipped;
+    private final Counter repliesSkipped;
+    private final Counter bytesRead;
+    private final Timer treeRuns;
+    private final Timer streamRuns;
+
+    /**
+     * Register the parser meters with the given registry
+     * @param registry registry to register the meters with, e.g. the one Spring Boot Actuator exposes
+     */
+    public ParserMetrics(MeterRegistry registry) {
+        this.threadsParsed = postCounter(registry, "thread", "parsed");
+        this.repliesParsed = postCounter(registry, "reply", "parsed");
+        this.threadsSkipped = postCounter(registry, "thread", "skipped");
+        this.repliesSkipped = postCounter(registry, "reply", "skipped");
+        this.bytesRead = Counter.builder("parser.input")
+                .baseUnit("bytes")
+                .description("Size of the JSON files parsed")
+                .register(registry);
+        this.treeRuns = runTimer(registry, "tree");
+        this.streamRuns = runTimer(registry, "stream");
+    }
+
+    /**
+     * Count a thread that was parsed successfully
+     */
+    void recordThread() {
+        threadsParsed.increment();
+    }
+
+    /**
+     * Count a reply that was parsed successfully
+     */
+    void recordReply() {
+        repliesParsed.increment();
+    }
+
+    /**
+     * Count a malformed thread that was skipped
+     */
+    void recordSkippedThread() {
+        threadsSkipped.increment();
+    }
+
+    /**
+     * Count a malformed reply that was skipped
+     */
+    void recordSkippedReply() {
+        repliesSkipped.increment();
+    }
+
+    /**
+     * Record a finished parse run
+     * @param isStreaming whether the run streamed threads rather than building the whole tree
+     * @param inputBytes size of the parsed file, or -1 if it is not known (e.g. for resources)
+     * @param durationNanos duration of the run
+     */
+    void recordRun(boolean isStreaming, long inputBytes, long durationNanos) {
+        (isStreaming ? streamRuns : treeRuns).record(durationNanos, TimeUnit.NANOSECONDS);
+        if (inputBytes >= 0) {
+            bytesRead.increment(inputBytes);
+        }
+    }
+
+    private static Counter postCounter(MeterRegistry registry, String kind, String outcome) {
+        return Counter.builder("parser.posts")
+                .tag("kind", kind)
+                .tag("outcome", outcome)
+                .description("Posts read from JSON feeds")
+                .register(registry);
+    }
+
+    private static Timer runTimer(MeterRegistry registry, String mode) {
+        return Timer.builder("parser.runs")
+                .tag("mode", mode)
+                .description("Duration of whole parse runs")
+                .register(registry);
+    }
+}
@@ -0,0 +1,457 @@
+package com.ecs160.Parser;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * Streaming counterpart of Parser.parseThreads().
+ * Walks feed[].thread.post.record and feed[].thread.replies, including nested replies, token by token with a Gson
+ * JsonReader, and hands out one top-level Post (with its reply tree) at a time. Only the thread currently being read is held in memory, so
+ * memory use does not depend on the size of the feed.
+ *
+ * Like the tree parser, threads and replies that are missing fields or have fields of unexpected types are handled
+ * according to the parser's error policy, and counted in the parse report.
+ * A thread's "post" may come after its "replies", so whether the replies are kept is only known at the end of the
+ * thread. Until then, replies get no ids and are neither counted nor reported; the replies of a rejected thread or
+ * reply are then discarded without a trace, as the tree parser never looks at them.
+ */
+public class ThreadIterator implements Iterator<Post>, Closeable {
+    private final Parser parser;
+    private final JsonReader reader;
+    private final ParseReport report;
+    private Post nextThread;
+    private boolean isFeedDone;
+    // Number of "feed" elements read so far, including skipped and invalid ones
+    private int feedIndex;
+    // Meters that the run is recorded in on close(), or null, and what is recorded
+    private ParserMetrics metrics;
+    private long inputBytes;
+    private long startNanos;
+
+    /**
+     * Start streaming threads from the given reader, positioned at the first element of the "feed" array
+     * @param parser parser that assigns unique ids to parsed posts
+     * @param reader JSON reader over the whole feed document
+     * @param report report that skipped records are counted in
+     * @throws ParserException If the document is not an object containing an array named "feed"
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    ThreadIterator(Parser parser, JsonReader reader, ParseReport report) throws ParserException, IOException {
+        this.parser = parser;
+        this.reader = reader;
+        this.report = report;
+        this.isFeedDone = false;
+        this.feedIndex = 0;
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new ParserException("Root JSON element is not an object");
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("feed") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new ParserException("JSON does not contain array named \"feed\"");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextThread == null && !isFeedDone) {
+            try {
+                advance();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (ParserException ex) {
+                // Only thrown under ErrorPolicy.FAIL_FAST
+                throw new UncheckedParserException(ex);
+            }
+        }
+        return nextThread != null;
+    }
+
+    @Override
+    public Post next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Post thread = nextThread;
+        nextThread = null;
+        return thread;
+    }
+
+    /**
+     * Getter for the report of this parse run
+     * @return parse report
+     */
+    public ParseReport getReport() {
+        return report;
+    }
+
+    /**
+     * Getter for the position in the "feed" array after the last thread handed out by next(),
+     * as long as hasNext() has not been called again since.
+     * Resuming from this index with Parser.streamThreads() continues right after that thread.
+     * @return number of "feed" elements consumed
+     */
+    public int getFeedIndex() {
+        return feedIndex;
+    }
+
+    /**
+     * Skip "feed" elements without parsing them, before the first call to hasNext()
+     * @param count number of elements to skip
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    void skipFeedItems(int count) throws IOException {
+        while (feedIndex < count && reader.hasNext()) {
+            reader.skipValue();
+            feedIndex += 1;
+        }
+    }
+
+    /**
+     * Record the run in the given meters once the iterator is closed
+     * @param metrics parser meters
+     * @param inputBytes size of the parsed file, or -1 if it is not known
+     */
+    void setRunMetrics(ParserMetrics metrics, long inputBytes) {
+        this.metrics = metrics;
+        this.inputBytes = inputBytes;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Close the underlying reader
+     * @throws IOException If the reader cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (metrics != null) {
+            // Recorded at most once, even if close() is called again
+            metrics.recordRun(true, inputBytes, System.nanoTime() - startNanos);
+            metrics = null;
+        }
+        reader.close();
+    }
+
+    /**
+     * Read feed elements until the next valid thread or the end of the feed array
+     * @throws IOException If the document cannot be read or is malformed
+     * @throws ParserException If a record is malformed and the error policy is FAIL_FAST
+     */
+    private void advance() throws IOException, ParserException {
+        while (reader.hasNext()) {
+            Post thread = readFeedItem();
+            feedIndex += 1;
+            if (thread != null) {
+                report.recordThread();
+                nextThread = thread;
+                return;
+            }
+        }
+        // Anything after the "feed" array is of no interest
+        reader.endArray();
+        isFeedDone = true;
+    }
+
+    /**
+     * Read one element of the "feed" array
+     * @return parsed thread, or null if the element is not a valid thread
+     * @throws IOException If the document cannot be read or is malformed
+     * @throws ParserException If a record is malformed and the error policy is FAIL_FAST
+     */
+    private Post readFeedItem() throws IOException, ParserException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            report.recordSkippedThread("feed[" + feedIndex + "]", "no \"thread\" object");
+            return null;
+        }
+
+        Post thread = null;
+        boolean hasThread = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("thread") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                hasThread = true;
+                thread = readThread();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (thread == null) {
+            report.recordSkippedThread("feed[" + feedIndex + "]", hasThread ? Parser.INVALID_POST_REASON : "no \"thread\" object");
+        }
+        return thread;
+    }
+
+    /**
+     * Read a "thread" object: its top-level post and its replies
+     * @return parsed thread, or null if the post is missing or invalid
+     * @throws IOException If the document cannot be read or is malformed
+     * @throws ParserException If a reply is malformed and the error policy is FAIL_FAST
+     */
+    private Post readThread() throws IOException, ParserException {
+        Post post = null;
+        ReplyLevel replies = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("post")) {
+                post = readPost();
+            } else if (name.equals("replies") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                replies = readReplies("feed[" + feedIndex + "].thread.replies");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (post == null) {
+            return null;
+        }
+        if (replies != null) {
+            for (String location : replies.skippedLocations) {
+                report.recordSkippedReply(location, Parser.INVALID_POST_REASON);
+            }
+            for (Post reply : replies.replies) {
+                post.addReply(reply);
+            }
+        }
+        assignIds(post);
+        return post;
+    }
+
+    /**
+     * Give a kept thread and its replies their unique ids, and count the replies.
+     * Ids are assigned in the order the tree parser assigns them: the post, each "replies" array in full, and then
+     * the arrays nested in it, the last one first.
+     * @param post top-level post of the thread
+     */
+    private void assignIds(Post post) {
+        post.setId(parser.getUniqueId());
+        Deque<List<Post>> pendingArrays = new ArrayDeque<List<Post>>();
+        pendingArrays.push(post.getReplies());
+        while (!pendingArrays.isEmpty()) {
+            for (Post reply : pendingArrays.pop()) {
+                reply.setId(parser.getUniqueId());
+                report.recordReply();
+                if (!reply.getReplies().isEmpty()) {
+                    pendingArrays.push(reply.getReplies());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a "replies" array and every reply nested below it.
+     * Instead of recursing per level of nesting, the arrays currently open are kept on an explicit stack, so the
+     * depth of a reply tree is only limited by the heap. The "post" and "replies" of a reply may come in either
+     * order, so a reply is only attached to its parent once its object has been read completely. A malformed reply
+     * is dropped together with the replies nested below it, and with the malformed replies found among them.
+     * @param location location of the array in the feed, used to report malformed replies
+     * @return the outermost array, holding the parsed replies and the locations of malformed ones to report
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    private ReplyLevel readReplies(String location) throws IOException {
+        Deque<ReplyLevel> levels = new ArrayDeque<ReplyLevel>();
+        reader.beginArray();
+        levels.push(new ReplyLevel(location, null));
+
+        while (true) {
+            ReplyLevel level = levels.peek();
+            if (!level.isInReply) {
+                // Between two replies of the array on top of the stack
+                if (!reader.hasNext()) {
+                    reader.endArray();
+                    levels.pop();
+                    if (levels.isEmpty()) {
+                        return level;
+                    }
+                    // The finished array holds the nested replies of the reply being read one level up
+                    levels.peek().nestedReplies = level.replies;
+                    levels.peek().nestedSkippedLocations = level.skippedLocations;
+                    continue;
+                }
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    level.skippedLocations.add(level.describe());
+                    level.replyIndex += 1;
+                    continue;
+                }
+                reader.beginObject();
+                level.isInReply = true;
+                level.post = null;
+                level.nestedReplies = null;
+                level.nestedSkippedLocations = null;
+            } else if (reader.hasNext()) {
+                // Inside a reply object
+                String name = reader.nextName();
+                if (name.equals("post")) {
+                    level.post = readPost();
+                } else if (name.equals("replies") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    levels.push(new ReplyLevel(null, level));
+                } else {
+                    reader.skipValue();
+                }
+            } else {
+                reader.endObject();
+                if (level.post != null) {
+                    if (level.nestedReplies != null) {
+                        for (Post nestedReply : level.nestedReplies) {
+                            level.post.addReply(nestedReply);
+                        }
+                        level.skippedLocations.addAll(level.nestedSkippedLocations);
+                    }
+                    level.replies.add(level.post);
+                } else {
+                    // A malformed reply only drops that reply; the thread and its other replies are kept
+                    level.skippedLocations.add(level.describe());
+                }
+                level.isInReply = false;
+                level.replyIndex += 1;
+            }
+        }
+    }
+
+    /**
+     * Read a "post" object, of which only the "uri" and the "record" are of interest
+     * @return parsed post, or null if it is invalid
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    private Post readPost() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        Post post = null;
+        String uri = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("record") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                post = readRecord();
+            } else if (name.equals("uri")) {
+                uri = readString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (post != null) {
+            post.setUri(uri);
+        }
+        return post;
+    }
+
+    /**
+     * Read a "record" object into a new Post, whose id is only assigned once its thread is known to be kept
+     * @return parsed post, or null if "createdAt" is missing or malformed
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    private Post readRecord() throws IOException {
+        String createdAt = null;
+        String text = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("createdAt")) {
+                createdAt = readString();
+            } else if (name.equals("text")) {
+                String recordText = readString();
+                text = recordText != null ? recordText : "";
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (createdAt == null) {
+            return null;
+        }
+        long createdAtMillis;
+        try {
+            createdAtMillis = Post.parseDateTime(createdAt);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+        // The number of replies is not known yet while streaming, so the replies list grows as they are added
+        Post post = new Post();
+        post.setCreatedAtMillis(createdAtMillis);
+        post.setPostText(text);
+        return post;
+    }
+
+    /**
+     * Read a primitive value as a String
+     * @return value as a String, or null if the value is not a String or number
+     * @throws IOException If the document cannot be read or is malformed
+     */
+    private String readString() throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /*
+     * "replies" array currently being read, the replies and the locations of malformed replies found in it so far,
+     * and the state of the reply object currently open in it.
+     * The location of a nested array is kept as a link to its enclosing array, and only spelled out when a
+     * malformed reply is reported, so that deep trees do not build ever longer location strings.
+     */
+    private static final class ReplyLevel {
+        private final String rootLocation;
+        private final ReplyLevel outer;
+        private final List<Post> replies;
+        private final List<String> skippedLocations;
+        private int replyIndex;
+        private boolean isInReply;
+        private Post post;
+        private List<Post> nestedReplies;
+        private List<String> nestedSkippedLocations;
+
+        ReplyLevel(String rootLocation, ReplyLevel outer) {
+            this.rootLocation = rootLocation;
+            this.outer = outer;
+            this.replies = new ArrayList<Post>();
+            this.skippedLocations = new ArrayList<String>(0);
+            this.replyIndex = 0;
+            this.isInReply = false;
+        }
+
+        String describe() {
+            // While a nested array is open, each enclosing array is positioned at the reply that contains it
+            StringBuilder location = new StringBuilder("[").append(replyIndex).append("]");
+            ReplyLevel level = this;
+            while (level.outer != null) {
+                level = level.outer;
+                location.insert(0, "[" + level.replyIndex + "].replies");
+            }
+            return location.insert(0, level.rootLocation).toString();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ecs160.Parser;
+
+/*
+ * Wraps a ParserException thrown while streaming, since Iterator methods cannot throw checked exceptions.
+ */
+public class UncheckedParserException extends RuntimeException {
+    /**
+     * UncheckedParserException is constructed from the ParserException it wraps
+     * @param cause exception for why parsing cannot continue
+     */
+    public UncheckedParserException(ParserException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized ParserException getCause() {
+        return (ParserException) super.getCause();
+    }
+}
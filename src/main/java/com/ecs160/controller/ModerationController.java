@@ -1,18 +1,196 @@
 package com.ecs160.controller;
 
 import com.ecs160.BlueSkySchema.Post;
-import org.springframework.web.bind.annotation.GetMapping;
+import com.ecs160.moderation.ModerationEngine;
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.Session;
+import com.ecs160.persistence.SessionFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Moderation endpoints: POST /moderate for a single post, and POST /moderate/batch for a whole feed of posts.
+ *
+ * The batch endpoint takes either a JSON array or an NDJSON stream (one post per line) of posts, including their
+ * replies, and answers in the same format. Posts are read, moderated and written back one thread at a time, so
+ * neither side has to hold the whole feed in memory, and a client can keep sending while it reads results.
+ *
+ * The banned term list starts out from the "moderation.banned-terms" property, and can be replaced at runtime
+ * through PUT /moderate/terms without pausing moderation. Verdicts of repeated texts are served from the
+ * VerdictCache, if it is enabled.
+ *
+ * With Redis persistence configured, moderated posts are also persisted, through blocking pooled connections,
+ * under server-reserved ids and their own key prefix (see RequestPosts). Posts without text are rejected.
+ * This controller serves the servlet stack; ReactiveModerationController serves the same endpoints on WebFlux.
+ */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ModerationController {
+    // Maximum number of moderated threads of a batch request persisted per round trip
+    private static final int PERSIST_BATCH_SIZE = 256;
+
+    private final ModerationEngine engine;
+    private final ObjectReader postReader;
+    // Results are flushed when the client has nothing more buffered, rather than after every post
+    private final ObjectWriter postWriter;
+    // Session that moderated posts are persisted through, or null if persistence is not configured
+    private final Session session;
+
+    /**
+     * Instantiate the controller with its banned terms
+     * @param bannedTerms comma-separated banned terms; blank entries are ignored
+     * @param objectMapper JSON mapper that batch requests are read and written with
+     * @param sessionFactory factory of the session that moderated posts are persisted through, if configured
+     * @param verdictCache cache of verdicts by text, if enabled
+     */
+    public ModerationController(@Value("${moderation.banned-terms:}") String bannedTerms, ObjectMapper objectMapper,
+                                ObjectProvider<SessionFactory> sessionFactory, ObjectProvider<VerdictCache> verdictCache) {
+        this.engine = ModerationEngine.fromCommaSeparated(bannedTerms);
+        engine.setVerdictCache(verdictCache.getIfAvailable());
+        this.postReader = objectMapper.readerFor(Post.class);
+        this.postWriter = objectMapper.writerFor(Post.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        SessionFactory factory = sessionFactory.getIfAvailable();
+        // A session opened from a factory may be shared by all request threads
+        this.session = factory != null ? factory.openSession() : null;
+        if (session != null) {
+            session.setKeyPrefix(RequestPosts.KEY_PREFIX);
+        }
+    }
 
     @PostMapping("/moderate")
-    public Post moderate(@RequestBody Post request) {
-        // Moderation logic
-        
+    public Post moderate(@RequestBody Post request) throws Exception {
+        int postCount = RequestPosts.validate(request);
+        // Replies are persisted with the post, so they are moderated with it
+        engine.moderateThread(request);
+        if (session != null) {
+            RequestPosts.assignIds(request, session.reserveIds(postCount));
+            session.persist(Collections.singletonList(request));
+        }
+        return request;
+    }
+
+    /**
+     * Replace the banned term list
+     * @param terms new banned terms, one per line; blank lines are ignored
+     * @return number of terms now banned
+     */
+    @PutMapping(value = "/moderate/terms", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public int reloadTerms(@RequestBody String terms) {
+        return engine.reload(Arrays.asList(terms.split("\\R")));
+    }
+
+    /**
+     * Moderate a JSON array of posts, writing the moderated posts back as a JSON array while the request is read
+     * @param body request body
+     * @param response response that the moderated posts are streamed to
+     * @throws Exception If the request cannot be read, the response cannot be written, or persistence fails
+     */
+    @PostMapping(value = "/moderate/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void moderateBatch(InputStream body, HttpServletResponse response) throws Exception {
+        try (JsonParser parser = postReader.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expected a JSON array of posts");
+            }
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            try (JsonGenerator generator = postWriter.createGenerator(response.getOutputStream())) {
+                generator.writeStartArray();
+                moderateStream(body, parser, generator, false);
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    /**
+     * Moderate an NDJSON stream of posts, writing each moderated post back as one line while the request is read
+     * @param body request body
+     * @param response response that the moderated posts are streamed to
+     * @throws Exception If the request cannot be read, the response cannot be written, or persistence fails
+     */
+    @PostMapping(value = "/moderate/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public void moderateNdjson(InputStream body, HttpServletResponse response) throws Exception {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        try (JsonParser parser = postReader.createParser(body);
+             JsonGenerator generator = postWriter.createGenerator(response.getOutputStream())) {
+            // Lines are ended explicitly instead of separating root values with a space
+            generator.setRootValueSeparator(null);
+            moderateStream(body, parser, generator, true);
+        }
+    }
+
+    /**
+     * Read posts until the end of the stream or of the enclosing array, and write each one back once moderated.
+     * With persistence configured, moderated threads are persisted in batches, at the latest before results are
+     * flushed to the client.
+     * @param body request body, checked for buffered input before blocking on the client
+     * @param parser parser positioned before the first post
+     * @param generator generator that the moderated posts are written to
+     * @param isNdjson whether each post is written on a line of its own
+     * @throws Exception If the request cannot be read, the response cannot be written, or persistence fails
+     */
+    private void moderateStream(InputStream body, JsonParser parser, JsonGenerator generator, boolean isNdjson) throws Exception {
+        List<Post> unpersisted = new ArrayList<Post>();
+        while (true) {
+            // Send what is done before waiting for the client, so that a pipelining client sees results right away
+            if (body.available() == 0 || unpersisted.size() >= PERSIST_BATCH_SIZE) {
+                persist(unpersisted);
+                generator.flush();
+            }
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                persist(unpersisted);
+                return;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expected a post object");
+            }
+
+            Post thread = postReader.readValue(parser);
+            int postCount = RequestPosts.validate(thread);
+            engine.moderateThread(thread);
+            if (session != null) {
+                // Ids are assigned before the thread is written back, so that the response carries them
+                RequestPosts.assignIds(thread, session.reserveIds(postCount));
+                unpersisted.add(thread);
+            }
+            postWriter.writeValue(generator, thread);
+            if (isNdjson) {
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /**
+     * Persist the given moderated threads, if persistence is configured, and clear the list
+     * @param threads moderated threads
+     * @throws Exception If persistence fails
+     */
+    private void persist(List<Post> threads) throws Exception {
+        if (session != null && !threads.isEmpty()) {
+            session.persist(threads);
+            threads.clear();
+        }
     }
 
     static class MyRequest {
@@ -26,4 +204,4 @@ public class ModerationController {
             this.postContent = postContent;
         }
     }
-}
\ No newline at end of file
+}
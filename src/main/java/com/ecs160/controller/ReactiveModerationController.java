@@ -0,0 +1,115 @@
+package com.ecs160.controller;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.moderation.ModerationEngine;
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.ReactiveSession;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+
+/*
+ * Non-blocking counterpart of ModerationController, serving the same endpoints when the service runs on WebFlux
+ * (spring.main.web-application-type=reactive).
+ *
+ * No handler blocks: moderation itself is pure computation, and moderated posts are persisted through a
+ * ReactiveSession if Redis persistence is configured. Batch requests are decoded, moderated, persisted and encoded
+ * as a stream, and each step only requests more posts once it has room for them, so a slow client or a slow Redis
+ * throttles reading of the request instead of buffering it.
+ *
+ * As on the servlet stack, posts without text are rejected, and persisted posts get server-reserved ids under their
+ * own key prefix (see RequestPosts).
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveModerationController {
+    // Maximum number of threads of a batch request being persisted at once
+    private static final int PERSIST_CONCURRENCY = 64;
+
+    private final ModerationEngine engine;
+    // Session that moderated posts are persisted through, or null if persistence is not configured
+    private final ReactiveSession session;
+
+    /**
+     * Instantiate the controller with its banned terms
+     * @param bannedTerms comma-separated banned terms; blank entries are ignored
+     * @param session reactive session that moderated posts are persisted through, if configured
+     * @param verdictCache cache of verdicts by text, if enabled; kept local on this stack, so it never blocks
+     */
+    public ReactiveModerationController(@Value("${moderation.banned-terms:}") String bannedTerms,
+                                        ObjectProvider<ReactiveSession> session, ObjectProvider<VerdictCache> verdictCache) {
+        this.engine = ModerationEngine.fromCommaSeparated(bannedTerms);
+        engine.setVerdictCache(verdictCache.getIfAvailable());
+        this.session = session.getIfAvailable();
+        if (this.session != null) {
+            this.session.setKeyPrefix(RequestPosts.KEY_PREFIX);
+        }
+    }
+
+    @PostMapping("/moderate")
+    public Mono<Post> moderate(@RequestBody Mono<Post> request) {
+        return request.flatMap(post -> {
+            int postCount = RequestPosts.validate(post);
+            // Replies are persisted with the post, so they are moderated with it
+            engine.moderateThread(post);
+            return persist(post, postCount);
+        });
+    }
+
+    /**
+     * Moderate a JSON array or NDJSON stream of posts, including their replies, answering in the same format.
+     * Results keep the order of the request.
+     * @param threads posts decoded one at a time from the request body
+     * @return moderated posts, encoded as they are produced
+     */
+    @PostMapping(value = "/moderate/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<Post> moderateBatch(@RequestBody Flux<Post> threads) {
+        return threads.flatMapSequential(thread -> {
+            int postCount = RequestPosts.validate(thread);
+            engine.moderateThread(thread);
+            return persist(thread, postCount);
+        }, PERSIST_CONCURRENCY);
+    }
+
+    /**
+     * Replace the banned term list
+     * @param terms new banned terms, one per line; blank lines are ignored
+     * @return number of terms now banned
+     */
+    @PutMapping(value = "/moderate/terms", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public Mono<Integer> reloadTerms(@RequestBody String terms) {
+        // Compiling a large term list takes a while, so it is kept off the event loop
+        return Mono.fromCallable(() -> engine.reload(Arrays.asList(terms.split("\\R"))))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Persist a moderated post and its replies under newly reserved ids, if persistence is configured
+     * @param post moderated post, already validated
+     * @param postCount number of posts in the thread, as counted by RequestPosts.validate()
+     * @return the post, once it has been persisted
+     */
+    private Mono<Post> persist(Post post, int postCount) {
+        if (session == null) {
+            return Mono.just(post);
+        }
+        return session.reserveIds(postCount)
+                .flatMap(firstId -> {
+                    RequestPosts.assignIds(post, firstId);
+                    return session.persist(post);
+                })
+                .thenReturn(post);
+    }
+}
@@ -0,0 +1,71 @@
+package com.ecs160.controller;
+
+import com.ecs160.BlueSkySchema.Post;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/*
+ * Checks and id assignment for posts bound from request bodies, shared by both moderation controllers.
+ *
+ * Ids sent by clients are never trusted: posts are persisted under ids reserved on the server, and under their own
+ * key prefix, so that requests can neither overwrite each other's posts nor posts persisted by ingestion.
+ */
+final class RequestPosts {
+    // Redis key prefix of persisted moderated posts, kept apart from the keys of ingested posts
+    static final String KEY_PREFIX = "moderated:post:";
+
+    private RequestPosts() {
+    }
+
+    /**
+     * Check that every post of a thread can be moderated and persisted
+     * @param thread top-level post bound from the request
+     * @return number of posts in the thread, including the top-level post
+     * @throws ResponseStatusException 400 Bad Request if a post has no text, or a reply is null
+     */
+    static int validate(Post thread) {
+        int count = 0;
+        Deque<Post> pending = new ArrayDeque<Post>();
+        pending.push(thread);
+        while (!pending.isEmpty()) {
+            Post post = pending.pop();
+            if (post.getPostText() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every post and reply must have postText");
+            }
+            count += 1;
+            if (post.getReplies() != null) {
+                for (Post reply : post.getReplies()) {
+                    if (reply == null) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Replies must not be null");
+                    }
+                    pending.push(reply);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replace the ids of every post of a thread with consecutive server-reserved ids
+     * @param thread top-level post
+     * @param firstId first id of a range reserved for validate(thread) posts
+     */
+    static void assignIds(Post thread, int firstId) {
+        int nextId = firstId;
+        Deque<Post> pending = new ArrayDeque<Post>();
+        pending.push(thread);
+        while (!pending.isEmpty()) {
+            Post post = pending.pop();
+            post.setId(nextId);
+            nextId += 1;
+            if (post.getReplies() != null) {
+                for (Post reply : post.getReplies()) {
+                    pending.push(reply);
+                }
+            }
+        }
+    }
+}
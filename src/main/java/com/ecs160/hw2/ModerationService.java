@@ -1,12 +1,17 @@
 package com.ecs160.hw2;
 
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.AttributesRegistry;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@SpringBootApplication
+// Controllers live in com.ecs160.controller, outside this class's own package
+@SpringBootApplication(scanBasePackages = "com.ecs160")
 public class ModerationService {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		// Reflect persistable classes once up front rather than on the first persisted request
+		AttributesRegistry.preload(Post.class);
 		SpringApplication.run(ModerationService.class, args);
 	}
 
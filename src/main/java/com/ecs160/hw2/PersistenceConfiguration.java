@@ -0,0 +1,61 @@
+package com.ecs160.hw2;
+
+import com.ecs160.persistence.PersistenceMetrics;
+import com.ecs160.persistence.ReactiveSession;
+import com.ecs160.persistence.Session;
+import com.ecs160.persistence.SessionFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/*
+ * Redis persistence of moderated posts, enabled by setting "moderation.redis.host".
+ * The servlet stack persists through a pooled, blocking SessionFactory; the reactive stack through a single
+ * multiplexed ReactiveSession, so that no event loop thread ever blocks on Redis.
+ * With spring.threads.virtual.enabled, the SessionFactory also flushes on virtual threads, so that blocking calls
+ * are bounded by the connection pool ("moderation.redis.pool-size") rather than by the number of threads.
+ */
+@Configuration
+@ConditionalOnProperty("moderation.redis.host")
+public class PersistenceConfiguration {
+    @Value("${moderation.redis.host}")
+    private String host;
+
+    @Value("${moderation.redis.port:6379}")
+    private int port;
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public SessionFactory sessionFactory(@Value("${moderation.redis.pool-size:8}") int poolSize,
+                                         @Value("${spring.threads.virtual.enabled:false}") boolean isVirtualThreads,
+                                         ObjectProvider<MeterRegistry> registry) {
+        SessionFactory sessionFactory = new SessionFactory(host, port, poolSize, Duration.ofSeconds(5),
+                Session.DEFAULT_BATCH_SIZE, isVirtualThreads);
+        sessionFactory.setMetrics(metrics(registry));
+        return sessionFactory;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveSession reactiveSession(ObjectProvider<MeterRegistry> registry) {
+        ReactiveSession reactiveSession = new ReactiveSession(host, port);
+        reactiveSession.setMetrics(metrics(registry));
+        return reactiveSession;
+    }
+
+    /**
+     * Create the persistence meters if a registry is available, e.g. from Spring Boot Actuator
+     * @param registry meter registry, if any
+     * @return persistence meters, or null
+     */
+    private static PersistenceMetrics metrics(ObjectProvider<MeterRegistry> registry) {
+        MeterRegistry meterRegistry = registry.getIfAvailable();
+        return meterRegistry != null ? new PersistenceMetrics(meterRegistry) : null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.ecs160.hw2;
+
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.SessionFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+ * Verdict cache of the moderation endpoints, disabled unless "moderation.verdict-cache.enabled" is true.
+ * It only pays off on feeds where the same texts recur; ModerationBenchmark measures it with and without the cache.
+ * With "moderation.verdict-cache.shared" set, verdicts are also shared through the Redis that posts are persisted
+ * to. Only the servlet stack has a blocking connection pool to share them through; on the reactive stack the cache
+ * stays local, so that no event loop thread waits on Redis.
+ */
+@Configuration
+@ConditionalOnProperty(name = "moderation.verdict-cache.enabled", havingValue = "true")
+public class VerdictCacheConfiguration {
+    @Bean
+    public VerdictCache verdictCache(@Value("${moderation.verdict-cache.max-size:" + VerdictCache.DEFAULT_MAX_SIZE + "}") long maxSize,
+                                     @Value("${moderation.verdict-cache.shared:false}") boolean isShared,
+                                     @Value("${moderation.verdict-cache.shared-ttl-seconds:3600}") long sharedTtlSeconds,
+                                     ObjectProvider<SessionFactory> sessionFactory,
+                                     ObjectProvider<MeterRegistry> registry) {
+        VerdictCache verdictCache = new VerdictCache(maxSize);
+        SessionFactory factory = sessionFactory.getIfAvailable();
+        if (isShared && factory != null) {
+            verdictCache.setSharedStore(factory.getJedisPool(), sharedTtlSeconds);
+        }
+        MeterRegistry meterRegistry = registry.getIfAvailable();
+        if (meterRegistry != null) {
+            verdictCache.bindTo(meterRegistry);
+        }
+        return verdictCache;
+    }
+}
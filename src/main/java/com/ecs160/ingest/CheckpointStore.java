@@ -0,0 +1,31 @@
+package com.ecs160.ingest;
+
+import java.io.IOException;
+
+/*
+ * Durable storage of ingest checkpoints, keyed by the name of the ingested feed file.
+ */
+public interface CheckpointStore {
+    /**
+     * Load the checkpoint of a feed
+     * @param feedName name of the feed file
+     * @return last saved checkpoint, or null if the feed has not been ingested before
+     * @throws IOException If the checkpoint cannot be read
+     */
+    IngestCheckpoint load(String feedName) throws IOException;
+
+    /**
+     * Save the checkpoint of a feed, replacing the previous one
+     * @param feedName name of the feed file
+     * @param checkpoint checkpoint to save
+     * @throws IOException If the checkpoint cannot be written
+     */
+    void save(String feedName, IngestCheckpoint checkpoint) throws IOException;
+
+    /**
+     * Remove the checkpoint of a feed, so that the next ingest starts from the beginning
+     * @param feedName name of the feed file
+     * @throws IOException If the checkpoint cannot be removed
+     */
+    void clear(String feedName) throws IOException;
+}
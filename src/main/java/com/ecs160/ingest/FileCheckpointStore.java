@@ -0,0 +1,70 @@
+package com.ecs160.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/*
+ * Checkpoint store that keeps one small properties file per feed in a local directory.
+ * A checkpoint is written to a temporary file first and then moved over the old one, so a crash while saving
+ * leaves either the old or the new checkpoint, never a torn one.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+    private final Path directory;
+
+    /**
+     * Instantiate a new file checkpoint store
+     * @param directory directory to keep checkpoint files in; created if missing
+     * @throws IOException If the directory cannot be created
+     */
+    public FileCheckpointStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public IngestCheckpoint load(String feedName) throws IOException {
+        Path file = checkpointFile(feedName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        // Checkpoints saved by older versions also hold a "nextId", which is no longer used
+        return new IngestCheckpoint(Integer.parseInt(properties.getProperty("feedIndex")));
+    }
+
+    @Override
+    public void save(String feedName, IngestCheckpoint checkpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("feedIndex", Integer.toString(checkpoint.getFeedIndex()));
+
+        Path file = checkpointFile(feedName);
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            properties.store(out, feedName);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void clear(String feedName) throws IOException {
+        Files.deleteIfExists(checkpointFile(feedName));
+    }
+
+    /**
+     * Get the checkpoint file of a feed
+     * @param feedName name of the feed file
+     * @return checkpoint file path
+     */
+    private Path checkpointFile(String feedName) {
+        // Feed names may be paths, so flatten them into a single file name
+        return directory.resolve(feedName.replaceAll("[^A-Za-z0-9._-]", "_") + ".checkpoint");
+    }
+}
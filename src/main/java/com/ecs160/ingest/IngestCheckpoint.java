@@ -0,0 +1,31 @@
+package com.ecs160.ingest;
+
+/*
+ * Progress of an interrupted or completed ingest of one feed file.
+ * The feed index is the number of "feed" array elements whose threads have been persisted, so that a resumed ingest
+ * does not re-persist them. Ids are not part of it: they come from a Redis counter shared by every feed.
+ */
+public class IngestCheckpoint {
+    private final int feedIndex;
+
+    /**
+     * Instantiate a new checkpoint
+     * @param feedIndex number of "feed" elements already persisted
+     */
+    public IngestCheckpoint(int feedIndex) {
+        this.feedIndex = feedIndex;
+    }
+
+    /**
+     * Getter for number of "feed" elements already persisted
+     * @return feed index to resume from
+     */
+    public int getFeedIndex() {
+        return feedIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestCheckpoint{feedIndex=" + feedIndex + "}";
+    }
+}
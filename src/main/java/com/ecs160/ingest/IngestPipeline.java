@@ -0,0 +1,398 @@
+package com.ecs160.ingest;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.Parser.ParseReport;
+import com.ecs160.Parser.Parser;
+import com.ecs160.Parser.ThreadIterator;
+import com.ecs160.Parser.UncheckedParserException;
+import com.ecs160.persistence.PersistResult;
+import com.ecs160.persistence.Session;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Staged ingestion of a feed file straight into Redis: streaming parse -> batch -> pipelined persist.
+ * Stages run on their own threads and are connected by bounded queues. A stage that gets ahead blocks on its full
+ * output queue until the stage after it catches up, so a feed of any size is ingested in bounded memory:
+ * at most queueCapacity threads and queueCapacity batches are in flight at once.
+ *
+ * With a checkpoint store set, progress is saved after every persisted batch, and a later run of the same feed
+ * resumes after the last saved batch. With a deduplicator set, threads whose content is already in Redis are
+ * skipped, which covers batches persisted after the last checkpoint and before a crash.
+ *
+ * Post ids are reserved from the session's Redis counter rather than counted per run, so no run of any feed, resumed
+ * or not, hands out an id that an earlier run already stored a post under.
+ *
+ * Every run gets new queues. A failed run leaves threads, batches and end markers in its queues, and its stage
+ * threads may still be winding down after it returns; none of that can reach a later run.
+ */
+public class IngestPipeline {
+    // End-of-stream markers, compared by identity
+    private static final ParsedThread END_OF_THREADS = new ParsedThread(null, 0);
+    private static final ThreadBatch END_OF_BATCHES = new ThreadBatch(new ArrayList<Post>(0), 0);
+
+    private final Parser parser;
+    private final Session session;
+    private final int batchSize;
+    private final int queueCapacity;
+    // Queues of the current or last run
+    private volatile BlockingQueue<ParsedThread> threadQueue;
+    private volatile BlockingQueue<ThreadBatch> batchQueue;
+    private final StageMetrics parseMetrics;
+    private final StageMetrics batchMetrics;
+    private final StageMetrics persistMetrics;
+    // Optional resume and dedupe support, set before run()
+    private CheckpointStore checkpointStore;
+    private ThreadDeduplicator deduplicator;
+    private volatile int threadsDeduplicated;
+    private volatile ParseReport parseReport;
+
+    /**
+     * Instantiate a new ingest pipeline
+     * @param session thread-safe session, e.g. one opened from a SessionFactory, that batches are persisted through
+     *                and that post ids are reserved from while parsing
+     * @param queueCapacity capacity of each queue between stages
+     * @param batchSize number of threads persisted per batch
+     */
+    public IngestPipeline(Session session, int queueCapacity, int batchSize) {
+        if (queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be at least 1");
+        }
+        this.parser = new Parser(new SessionIdAllocator(session), Parser.DEFAULT_ID_BLOCK_SIZE);
+        this.session = session;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.threadQueue = new ArrayBlockingQueue<ParsedThread>(queueCapacity);
+        this.batchQueue = new ArrayBlockingQueue<ThreadBatch>(queueCapacity);
+        this.parseMetrics = new StageMetrics("parse");
+        this.batchMetrics = new StageMetrics("batch");
+        this.persistMetrics = new StageMetrics("persist");
+        this.threadsDeduplicated = 0;
+    }
+
+    /**
+     * Getter for the parser of this pipeline, e.g. to set its input mode, error policy or metrics before run()
+     * @return parser that feeds are streamed with
+     */
+    public Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * Set the store that progress is checkpointed to and resumed from
+     * @param checkpointStore checkpoint store, or null to always ingest the whole feed
+     */
+    public void setCheckpointStore(CheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+    }
+
+    /**
+     * Set the deduplicator that filters out threads already persisted
+     * @param deduplicator thread deduplicator, or null to persist every parsed thread
+     */
+    public void setDeduplicator(ThreadDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Expose the queue depths, stage counters and deduplicated threads of this pipeline through the given registry.
+     * Parse throughput and persistence latency are reported by the parser's and session's own metrics.
+     * @param registry registry to register the meters with, e.g. the one Spring Boot Actuator exposes
+     */
+    public void bindTo(MeterRegistry registry) {
+        // Read through the pipeline, since every run replaces the queues
+        Gauge.builder("ingest.queue.depth", this, IngestPipeline::getThreadQueueDepth)
+                .tag("queue", "threads")
+                .description("Items waiting between ingest stages")
+                .register(registry);
+        Gauge.builder("ingest.queue.depth", this, IngestPipeline::getBatchQueueDepth)
+                .tag("queue", "batches")
+                .description("Items waiting between ingest stages")
+                .register(registry);
+        FunctionCounter.builder("ingest.threads.deduplicated", this, IngestPipeline::getThreadsDeduplicated)
+                .description("Parsed threads skipped because their content was already persisted")
+                .register(registry);
+        parseMetrics.bindTo(registry);
+        batchMetrics.bindTo(registry);
+        persistMetrics.bindTo(registry);
+    }
+
+    /**
+     * Ingest a feed file. The parse and batch stages run on their own threads, and the persist stage on the caller's.
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to ingest
+     * @return combined result of all persisted batches
+     * @throws Exception If any stage fails; the other stages are then stopped
+     */
+    public PersistResult run(boolean isInternal, String jsonFileName) throws Exception {
+        int startFeedIndex = 0;
+        if (checkpointStore != null) {
+            IngestCheckpoint checkpoint = checkpointStore.load(jsonFileName);
+            if (checkpoint != null) {
+                startFeedIndex = checkpoint.getFeedIndex();
+            }
+        }
+
+        int parseStartIndex = startFeedIndex;
+        BlockingQueue<ParsedThread> threadQueue = new ArrayBlockingQueue<ParsedThread>(queueCapacity);
+        BlockingQueue<ThreadBatch> batchQueue = new ArrayBlockingQueue<ThreadBatch>(queueCapacity);
+        this.threadQueue = threadQueue;
+        this.batchQueue = batchQueue;
+        ExecutorService stageThreads = Executors.newFixedThreadPool(2);
+        Future<?> parseStage = stageThreads.submit(() -> {
+            parseStage(isInternal, jsonFileName, parseStartIndex, threadQueue);
+            return null;
+        });
+        Future<?> batchStage = stageThreads.submit(() -> {
+            batchStage(threadQueue, batchQueue);
+            return null;
+        });
+
+        try {
+            PersistResult result = persistStage(jsonFileName, batchQueue);
+            // Surface a parse failure, which ends the stream early rather than failing the later stages
+            await(parseStage);
+            await(batchStage);
+            return result;
+        } catch (Exception ex) {
+            parseStage.cancel(true);
+            batchStage.cancel(true);
+            throw ex;
+        } finally {
+            stageThreads.shutdownNow();
+        }
+    }
+
+    /**
+     * Stream threads from the feed file into the thread queue
+     * @param isInternal whether the JSON file is a resource rather than a path on disk
+     * @param jsonFileName name of the JSON file to ingest
+     * @param startFeedIndex index of the first "feed" element to parse
+     * @param threadQueue queue that parsed threads are put on
+     * @throws Exception If the file cannot be parsed
+     */
+    private void parseStage(boolean isInternal, String jsonFileName, int startFeedIndex, BlockingQueue<ParsedThread> threadQueue) throws Exception {
+        try (ThreadIterator threads = parser.streamThreads(isInternal, jsonFileName, startFeedIndex)) {
+            parseReport = threads.getReport();
+            while (true) {
+                long startNanos = System.nanoTime();
+                if (!threads.hasNext()) {
+                    break;
+                }
+                Post thread = threads.next();
+                parseMetrics.recordItem(System.nanoTime() - startNanos);
+                put(threadQueue, new ParsedThread(thread, threads.getFeedIndex()), parseMetrics);
+            }
+        } catch (UncheckedParserException ex) {
+            // A malformed record under ErrorPolicy.FAIL_FAST
+            throw ex.getCause();
+        } finally {
+            // Always end the stream, so that the later stages finish with what was parsed
+            put(threadQueue, END_OF_THREADS, parseMetrics);
+        }
+    }
+
+    /**
+     * Group threads from the thread queue into batches on the batch queue
+     * @param threadQueue queue that parsed threads are taken from
+     * @param batchQueue queue that batches are put on
+     * @throws InterruptedException If the pipeline is stopped
+     */
+    private void batchStage(BlockingQueue<ParsedThread> threadQueue, BlockingQueue<ThreadBatch> batchQueue) throws InterruptedException {
+        List<Post> batch = new ArrayList<Post>(batchSize);
+        int endFeedIndex = 0;
+        while (true) {
+            ParsedThread parsed = take(threadQueue, batchMetrics);
+            if (parsed == END_OF_THREADS) {
+                break;
+            }
+
+            long startNanos = System.nanoTime();
+            batch.add(parsed.thread);
+            endFeedIndex = parsed.feedIndex;
+            batchMetrics.recordItem(System.nanoTime() - startNanos);
+            if (batch.size() >= batchSize) {
+                put(batchQueue, new ThreadBatch(batch, endFeedIndex), batchMetrics);
+                batch = new ArrayList<Post>(batchSize);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            put(batchQueue, new ThreadBatch(batch, endFeedIndex), batchMetrics);
+        }
+        put(batchQueue, END_OF_BATCHES, batchMetrics);
+    }
+
+    /**
+     * Persist batches from the batch queue, checkpointing after each one
+     * @param jsonFileName name of the JSON file being ingested, which the checkpoint is saved under
+     * @param batchQueue queue that batches are taken from
+     * @return combined result of all persisted batches
+     * @throws Exception If a batch or checkpoint cannot be persisted
+     */
+    private PersistResult persistStage(String jsonFileName, BlockingQueue<ThreadBatch> batchQueue) throws Exception {
+        PersistResult result = new PersistResult(0, 0, 0, 0, 0);
+        while (true) {
+            ThreadBatch batch = take(batchQueue, persistMetrics);
+            if (batch == END_OF_BATCHES) {
+                return result;
+            }
+
+            long startNanos = System.nanoTime();
+            List<Post> threads = batch.threads;
+            List<String> hashes = new ArrayList<String>(threads.size());
+            if (deduplicator != null) {
+                threads = deduplicator.filterUnseen(threads, hashes);
+                threadsDeduplicated += batch.threads.size() - threads.size();
+            }
+            if (!threads.isEmpty()) {
+                result = result.plus(session.persist(threads));
+            }
+            if (deduplicator != null) {
+                deduplicator.markPersisted(hashes);
+            }
+            if (checkpointStore != null) {
+                checkpointStore.save(jsonFileName, new IngestCheckpoint(batch.endFeedIndex));
+            }
+            persistMetrics.recordItem(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Put an item on a queue, recording the time blocked on a full queue
+     * @param queue queue to put on
+     * @param item item to put
+     * @param metrics metrics of the putting stage
+     * @param <T> type of queue items
+     * @throws InterruptedException If the pipeline is stopped
+     */
+    private static <T> void put(BlockingQueue<T> queue, T item, StageMetrics metrics) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        queue.put(item);
+        metrics.recordBlocked(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Take an item from a queue, recording the time blocked on an empty queue
+     * @param queue queue to take from
+     * @param metrics metrics of the taking stage
+     * @param <T> type of queue items
+     * @return item taken
+     * @throws InterruptedException If the pipeline is stopped
+     */
+    private static <T> T take(BlockingQueue<T> queue, StageMetrics metrics) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        T item = queue.take();
+        metrics.recordBlocked(System.nanoTime() - startNanos);
+        return item;
+    }
+
+    /**
+     * Wait for a stage thread and rethrow its exception, if any
+     * @param stage pending stage
+     * @throws Exception If the stage failed
+     */
+    private static void await(Future<?> stage) throws Exception {
+        try {
+            stage.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Getter for parse stage metrics
+     * @return parse stage metrics
+     */
+    public StageMetrics getParseMetrics() {
+        return parseMetrics;
+    }
+
+    /**
+     * Getter for batch stage metrics
+     * @return batch stage metrics
+     */
+    public StageMetrics getBatchMetrics() {
+        return batchMetrics;
+    }
+
+    /**
+     * Getter for persist stage metrics
+     * @return persist stage metrics
+     */
+    public StageMetrics getPersistMetrics() {
+        return persistMetrics;
+    }
+
+    /**
+     * Getter for the report of the parse stage, with counts of parsed and skipped records
+     * @return parse report, or null if parsing has not started
+     */
+    public ParseReport getParseReport() {
+        return parseReport;
+    }
+
+    /**
+     * Getter for number of parsed threads skipped because their content was already persisted
+     * @return number of deduplicated threads
+     */
+    public int getThreadsDeduplicated() {
+        return threadsDeduplicated;
+    }
+
+    /**
+     * Getter for number of parsed threads waiting to be batched in the current or last run
+     * @return thread queue depth
+     */
+    public int getThreadQueueDepth() {
+        return threadQueue.size();
+    }
+
+    /**
+     * Getter for number of batches waiting to be persisted in the current or last run
+     * @return batch queue depth
+     */
+    public int getBatchQueueDepth() {
+        return batchQueue.size();
+    }
+
+    /*
+     * Parsed thread and its position in the "feed" array
+     */
+    private static final class ParsedThread {
+        private final Post thread;
+        private final int feedIndex;
+
+        ParsedThread(Post thread, int feedIndex) {
+            this.thread = thread;
+            this.feedIndex = feedIndex;
+        }
+    }
+
+    /*
+     * Batch of threads and the position in the "feed" array right after its last thread
+     */
+    private static final class ThreadBatch {
+        private final List<Post> threads;
+        private final int endFeedIndex;
+
+        ThreadBatch(List<Post> threads, int endFeedIndex) {
+            this.threads = threads;
+            this.endFeedIndex = endFeedIndex;
+        }
+    }
+}
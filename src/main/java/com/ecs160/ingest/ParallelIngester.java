@@ -0,0 +1,145 @@
+package com.ecs160.ingest;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.Parser.IdAllocator;
+import com.ecs160.Parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*
+ * Parses many feed files in parallel, one file per task on the given worker pool.
+ * Every file is streamed by its own Parser, and all parsers reserve ids from one shared IdAllocator,
+ * so ids stay globally unique across files.
+ *
+ * In ordered mode threads are delivered file by file in the order the files were given, which requires holding
+ * each finished file until the files before it are delivered. In unordered mode threads are delivered as soon as
+ * they are parsed, directly from the worker threads.
+ *
+ * Files are awaited in the order they finish, so the first file that fails is noticed right away. The files still
+ * queued or being parsed are then cancelled, and its exception is thrown.
+ */
+public class ParallelIngester {
+    private final ExecutorService workers;
+    private final IdAllocator idAllocator;
+    private final boolean isOrdered;
+
+    /**
+     * Instantiate a new parallel ingester
+     * @param workers worker pool that files are parsed on, e.g. a fork/join or virtual thread executor
+     * @param idAllocator allocator shared by the parsers of all files
+     * @param isOrdered whether threads are delivered in file order
+     */
+    public ParallelIngester(ExecutorService workers, IdAllocator idAllocator, boolean isOrdered) {
+        this.workers = workers;
+        this.idAllocator = idAllocator;
+        this.isOrdered = isOrdered;
+    }
+
+    /**
+     * Parse all the given files and collect their threads
+     * @param jsonFileNames paths of the JSON files to parse
+     * @return parsed threads of all files, in file order if this ingester is ordered
+     * @throws Exception If any file cannot be parsed
+     */
+    public List<Post> ingestAll(List<String> jsonFileNames) throws Exception {
+        if (isOrdered) {
+            List<Post> threads = new ArrayList<Post>();
+            ingest(jsonFileNames, threads::add);
+            return threads;
+        }
+
+        ConcurrentLinkedQueue<Post> threads = new ConcurrentLinkedQueue<Post>();
+        ingest(jsonFileNames, threads::add);
+        return new ArrayList<Post>(threads);
+    }
+
+    /**
+     * Parse all the given files and deliver their threads to the given callback.
+     * In unordered mode the callback is invoked concurrently from the worker threads and must be thread-safe.
+     * @param jsonFileNames paths of the JSON files to parse
+     * @param threadConsumer callback receiving each parsed thread
+     * @throws Exception If any file cannot be parsed, after the other files are cancelled
+     */
+    public void ingest(List<String> jsonFileNames, Consumer<Post> threadConsumer) throws Exception {
+        int fileCount = jsonFileNames.size();
+        CompletionService<List<Post>> completion = new ExecutorCompletionService<List<Post>>(workers);
+        List<Future<List<Post>>> fileResults = new ArrayList<Future<List<Post>>>(fileCount);
+        Map<Future<List<Post>>, Integer> fileIndexes = new IdentityHashMap<Future<List<Post>>, Integer>(fileCount);
+        boolean isIngested = false;
+        try {
+            for (String jsonFileName : jsonFileNames) {
+                Future<List<Post>> fileResult = completion.submit(() -> parseFile(jsonFileName, threadConsumer));
+                fileIndexes.put(fileResult, fileResults.size());
+                fileResults.add(fileResult);
+            }
+
+            // Finished files that wait for a file before them to be delivered, in ordered mode
+            List<List<Post>> finishedFiles = new ArrayList<List<Post>>(Collections.nCopies(fileCount, null));
+            int nextFileIndex = 0;
+            for (int i = 0; i < fileCount; i++) {
+                Future<List<Post>> fileResult = completion.take();
+                List<Post> threads = await(fileResult);
+                if (isOrdered) {
+                    finishedFiles.set(fileIndexes.get(fileResult), threads);
+                    while (nextFileIndex < fileCount && finishedFiles.get(nextFileIndex) != null) {
+                        finishedFiles.get(nextFileIndex).forEach(threadConsumer);
+                        finishedFiles.set(nextFileIndex, null);
+                        nextFileIndex += 1;
+                    }
+                }
+            }
+            isIngested = true;
+        } finally {
+            if (!isIngested) {
+                // Interrupts the files being parsed, and keeps the queued ones from starting
+                for (Future<List<Post>> fileResult : fileResults) {
+                    fileResult.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream a single file with its own parser
+     * @param jsonFileName path of the JSON file to parse
+     * @param threadConsumer callback receiving each parsed thread in unordered mode
+     * @return parsed threads in ordered mode, or an empty list in unordered mode
+     * @throws Exception If the file cannot be parsed
+     */
+    private List<Post> parseFile(String jsonFileName, Consumer<Post> threadConsumer) throws Exception {
+        Parser parser = new Parser(idAllocator, Parser.DEFAULT_ID_BLOCK_SIZE);
+        List<Post> threads = new LinkedList<Post>();
+        parser.forEachThread(false, jsonFileName, isOrdered ? threads::add : threadConsumer);
+        return threads;
+    }
+
+    /**
+     * Wait for a file to be parsed and rethrow its exception, if any
+     * @param fileResult pending file result
+     * @return parsed threads of the file
+     * @throws Exception If the file could not be parsed
+     */
+    private static List<Post> await(Future<List<Post>> fileResult) throws Exception {
+        try {
+            return fileResult.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+}
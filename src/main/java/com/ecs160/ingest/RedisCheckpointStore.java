@@ -0,0 +1,55 @@
+package com.ecs160.ingest;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Checkpoint store that keeps the checkpoint of each feed in a Redis hash, next to the persisted posts.
+ * A single HSET replaces the checkpoint at once, so it is never half-written.
+ */
+public class RedisCheckpointStore implements CheckpointStore {
+    private static final String KEY_PREFIX = "ingest:checkpoint:";
+
+    private final JedisPool jedisPool;
+
+    /**
+     * Instantiate a new Redis checkpoint store
+     * @param jedisPool pool to borrow connections from
+     */
+    public RedisCheckpointStore(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    @Override
+    public IngestCheckpoint load(String feedName) {
+        Map<String, String> checkpointPairs;
+        try (Jedis jedis = jedisPool.getResource()) {
+            checkpointPairs = jedis.hgetAll(KEY_PREFIX + feedName);
+        }
+        if (checkpointPairs == null || checkpointPairs.isEmpty()) {
+            return null;
+        }
+
+        // Checkpoints saved by older versions also hold a "nextId", which is no longer used
+        return new IngestCheckpoint(Integer.parseInt(checkpointPairs.get("feedIndex")));
+    }
+
+    @Override
+    public void save(String feedName, IngestCheckpoint checkpoint) {
+        Map<String, String> checkpointPairs = new HashMap<String, String>();
+        checkpointPairs.put("feedIndex", Integer.toString(checkpoint.getFeedIndex()));
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hset(KEY_PREFIX + feedName, checkpointPairs);
+        }
+    }
+
+    @Override
+    public void clear(String feedName) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(KEY_PREFIX + feedName);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.ecs160.ingest;
+
+import com.ecs160.Parser.IdAllocator;
+import com.ecs160.persistence.PersistenceException;
+import com.ecs160.persistence.Session;
+
+/*
+ * Id allocator that reserves its blocks from the Redis counter of a session (see Session.reserveIds) instead of a
+ * counter in this process. Ids are then unique across ingest runs, feeds and processes writing under the session's
+ * key prefix, so a run never overwrites posts that an earlier run of this or any other feed stored.
+ */
+public class SessionIdAllocator extends IdAllocator {
+    private final Session session;
+
+    /**
+     * Instantiate a new session id allocator
+     * @param session thread-safe session to reserve ids through, e.g. one opened from a SessionFactory
+     */
+    public SessionIdAllocator(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public int reserveBlock(int blockSize) {
+        try {
+            return session.reserveIds(blockSize);
+        } catch (PersistenceException ex) {
+            // Blocks are reserved while parsing, which cannot throw a checked persistence exception
+            throw new IllegalStateException("Cannot reserve post ids: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Not supported: the counter is shared with other allocators, so how far it has got is not known here
+     * @return never returns
+     */
+    @Override
+    public int peekNextId() {
+        throw new UnsupportedOperationException("Ids are reserved from a shared Redis counter");
+    }
+
+    /**
+     * Not supported: ids reserved from the counter were never handed out before, so there is nothing to skip
+     * @param minNextId lowest id that may still be handed out
+     */
+    @Override
+    public void advanceTo(int minNextId) {
+        throw new UnsupportedOperationException("Ids are reserved from a shared Redis counter");
+    }
+}
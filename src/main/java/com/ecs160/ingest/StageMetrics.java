@@ -0,0 +1,124 @@
+package com.ecs160.ingest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Throughput and latency counters of a single ingest pipeline stage.
+ * Busy time is spent doing the stage's own work, and blocked time is spent waiting on the queues around it.
+ * A stage that is mostly blocked on its output queue is being held back by the stage after it (backpressure).
+ */
+public class StageMetrics {
+    private final String stageName;
+    private final LongAdder items;
+    private final LongAdder busyNanos;
+    private final LongAdder blockedNanos;
+
+    /**
+     * Instantiate new stage metrics
+     * @param stageName name of the stage
+     */
+    public StageMetrics(String stageName) {
+        this.stageName = stageName;
+        this.items = new LongAdder();
+        this.busyNanos = new LongAdder();
+        this.blockedNanos = new LongAdder();
+    }
+
+    /**
+     * Record that the stage processed one item
+     * @param nanos time spent processing the item
+     */
+    void recordItem(long nanos) {
+        items.increment();
+        busyNanos.add(nanos);
+    }
+
+    /**
+     * Record time the stage spent waiting on a queue
+     * @param nanos time spent waiting
+     */
+    void recordBlocked(long nanos) {
+        blockedNanos.add(nanos);
+    }
+
+    /**
+     * Getter for stage name
+     * @return stage name
+     */
+    public String getStageName() {
+        return stageName;
+    }
+
+    /**
+     * Getter for number of items processed
+     * @return number of items processed
+     */
+    public long getItems() {
+        return items.sum();
+    }
+
+    /**
+     * Getter for total time spent processing items
+     * @return busy time in nanoseconds
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * Getter for total time spent waiting on queues
+     * @return blocked time in nanoseconds
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    /**
+     * Getter for average processing latency per item
+     * @return average latency in nanoseconds, or 0 if no items were processed
+     */
+    public double getAverageLatencyNanos() {
+        long itemCount = items.sum();
+        return itemCount == 0 ? 0.0 : (double) busyNanos.sum() / itemCount;
+    }
+
+    /**
+     * Getter for throughput while the stage was busy
+     * @return items per second of busy time, or 0 if the stage did no work
+     */
+    public double getItemsPerSecond() {
+        long busy = busyNanos.sum();
+        return busy == 0 ? 0.0 : items.sum() * 1e9 / busy;
+    }
+
+    /**
+     * Expose the counters of this stage through the given registry, tagged with the stage name.
+     * The meters read the existing counters when scraped, so recording costs nothing extra.
+     * @param registry registry to register the meters with
+     */
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("ingest.stage.items", items, LongAdder::sum)
+                .tag("stage", stageName)
+                .description("Items processed by an ingest stage")
+                .register(registry);
+        FunctionCounter.builder("ingest.stage.busy", busyNanos, nanos -> nanos.sum() / 1e9)
+                .tag("stage", stageName)
+                .baseUnit("seconds")
+                .description("Time an ingest stage spent on its own work")
+                .register(registry);
+        FunctionCounter.builder("ingest.stage.blocked", blockedNanos, nanos -> nanos.sum() / 1e9)
+                .tag("stage", stageName)
+                .baseUnit("seconds")
+                .description("Time an ingest stage spent waiting on its queues")
+                .register(registry);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d items, %.1f items/s, %.0f ns/item, %d ms blocked",
+                stageName, getItems(), getItemsPerSecond(), getAverageLatencyNanos(), getBlockedNanos() / 1000000);
+    }
+}
@@ -0,0 +1,172 @@
+package com.ecs160.ingest;
+
+import com.ecs160.BlueSkySchema.Post;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Skips threads whose content has already been persisted, using a Redis set of content hashes.
+ * Ids are assigned at parse time, so a thread re-ingested after a crash (or from another copy of the feed) gets a
+ * new id; only its content identifies it. The content includes the AT URI of every post, which names its author,
+ * so that different users posting the same text at the same time are not mistaken for each other.
+ * One SMISMEMBER and one SADD are sent per batch, not per thread.
+ */
+public class ThreadDeduplicator {
+    // Redis set of content hashes of persisted threads
+    public static final String DEFAULT_KEY = "ingest:threads";
+    // Number of leading bytes of the SHA-256 digest kept per thread
+    private static final int HASH_BYTES = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final JedisPool jedisPool;
+    private final String key;
+
+    /**
+     * Instantiate a new deduplicator on the default Redis set
+     * @param jedisPool pool to borrow connections from
+     */
+    public ThreadDeduplicator(JedisPool jedisPool) {
+        this(jedisPool, DEFAULT_KEY);
+    }
+
+    /**
+     * Instantiate a new deduplicator
+     * @param jedisPool pool to borrow connections from
+     * @param key Redis set holding the content hashes
+     */
+    public ThreadDeduplicator(JedisPool jedisPool, String key) {
+        this.jedisPool = jedisPool;
+        this.key = key;
+    }
+
+    /**
+     * Filter out the threads of a batch that have already been persisted, or that repeat an earlier thread of the batch
+     * @param threads batch of threads
+     * @param hashes list that the content hashes of the returned threads are added to, in the same order
+     * @return threads not seen before
+     */
+    public List<Post> filterUnseen(List<Post> threads, List<String> hashes) {
+        String[] batchHashes = new String[threads.size()];
+        for (int i = 0; i < batchHashes.length; i++) {
+            batchHashes[i] = contentHash(threads.get(i));
+        }
+        if (batchHashes.length == 0) {
+            return threads;
+        }
+
+        List<Boolean> isSeen;
+        try (Jedis jedis = jedisPool.getResource()) {
+            isSeen = jedis.smismember(key, batchHashes);
+        }
+
+        List<Post> unseen = new ArrayList<Post>(threads.size());
+        // The set only learns of this batch once it is persisted, so copies within the batch are caught here
+        Set<String> batchSeen = new HashSet<String>(batchHashes.length * 2);
+        for (int i = 0; i < batchHashes.length; i++) {
+            if (!isSeen.get(i) && batchSeen.add(batchHashes[i])) {
+                unseen.add(threads.get(i));
+                hashes.add(batchHashes[i]);
+            }
+        }
+        return unseen;
+    }
+
+    /**
+     * Record threads as persisted. Call only once they have actually been written.
+     * @param hashes content hashes returned by filterUnseen()
+     */
+    public void markPersisted(List<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.sadd(key, hashes.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Hash the content of a thread: the AT URI, creation time and text of its post and of every reply in its reply
+     * tree, in depth-first order
+     * @param thread top-level post
+     * @return hex-encoded content hash
+     */
+    static String contentHash(Post thread) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+
+        // Explicit stack, so that deep reply trees do not overflow the call stack
+        Deque<Post> pendingPosts = new ArrayDeque<Post>();
+        pendingPosts.push(thread);
+        while (!pendingPosts.isEmpty()) {
+            Post post = pendingPosts.pop();
+            updateDigest(digest, post);
+            List<Post> replies = post.getReplies();
+            // Reply count, so that the shape of the tree is part of the hash
+            updateInt(digest, replies.size());
+            for (int i = replies.size() - 1; i >= 0; i--) {
+                pendingPosts.push(replies.get(i));
+            }
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Add the content of a single post to a digest
+     * @param digest digest to update
+     * @param post post to hash
+     */
+    private static void updateDigest(MessageDigest digest, Post post) {
+        updateString(digest, post.getUri());
+        long createdAt = post.getCreatedAtMillis();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (createdAt >>> shift));
+        }
+        updateString(digest, post.getPostText());
+    }
+
+    /**
+     * Add a String to a digest, with a length prefix so that boundaries cannot shift between Strings without
+     * changing the hash
+     * @param digest digest to update
+     * @param value value to add, or null, which is hashed like an empty String
+     */
+    private static void updateString(MessageDigest digest, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        updateInt(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * Add a big-endian int to a digest
+     * @param digest digest to update
+     * @param value value to add
+     */
+    private static void updateInt(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+}
@@ -0,0 +1,124 @@
+package com.ecs160.moderation;
+
+import com.ecs160.BlueSkySchema.Post;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Decides whether post text is blocked, against a banned term list that can be replaced while posts are moderated.
+ * The terms are compiled into a TermMatcher, and a reload compiles the new list on the calling thread before
+ * swapping it in with a single reference write. Moderating threads never wait on a reload: each post is checked
+ * entirely against either the old or the new list.
+ *
+ * With a VerdictCache set, verdicts of texts seen before are served from the cache instead of being matched again.
+ */
+public class ModerationEngine {
+    private final AtomicReference<TermMatcher> matcher;
+    // Cache of verdicts by text, or null to match every text
+    private volatile VerdictCache verdictCache;
+
+    /**
+     * Instantiate an engine with the given banned terms
+     * @param terms banned terms
+     */
+    public ModerationEngine(Collection<String> terms) {
+        this.matcher = new AtomicReference<TermMatcher>(new TermMatcher(terms));
+    }
+
+    /**
+     * Instantiate an engine from a comma-separated banned term list, such as a configuration property
+     * @param terms comma-separated banned terms; blank entries are ignored
+     * @return moderation engine
+     */
+    public static ModerationEngine fromCommaSeparated(String terms) {
+        List<String> termList = new ArrayList<String>();
+        for (String term : terms.split(",")) {
+            termList.add(term);
+        }
+        return new ModerationEngine(termList);
+    }
+
+    /**
+     * Set the cache that verdicts are looked up in and added to
+     * @param verdictCache verdict cache, or null to match every text
+     */
+    public void setVerdictCache(VerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
+    }
+
+    /**
+     * Check whether a post with the given text should be blocked, i.e. contains a banned term, ignoring case
+     * @param postText post text, or null
+     * @return true if the post should be blocked
+     */
+    public boolean isBlocked(String postText) {
+        return isBlocked(matcher.get(), postText);
+    }
+
+    /**
+     * Moderate a post and every reply nested below it, setting whether each one is blocked.
+     * Replies are walked with an explicit stack, so deep threads do not recurse.
+     * @param thread top-level post
+     * @return the same post
+     */
+    public Post moderateThread(Post thread) {
+        // Every post of the thread is checked against the same list, even if a reload happens meanwhile
+        TermMatcher current = matcher.get();
+        Deque<Post> pending = new ArrayDeque<Post>();
+        pending.push(thread);
+        while (!pending.isEmpty()) {
+            Post post = pending.pop();
+            post.setBlocked(isBlocked(current, post.getPostText()));
+            if (post.getReplies() != null) {
+                for (Post reply : post.getReplies()) {
+                    pending.push(reply);
+                }
+            }
+        }
+        return thread;
+    }
+
+    /**
+     * Replace the banned term list. Posts being moderated meanwhile finish against the previous list.
+     * @param terms new banned terms
+     * @return number of terms now banned
+     */
+    public int reload(Collection<String> terms) {
+        TermMatcher compiled = new TermMatcher(terms);
+        TermMatcher previous = matcher.getAndSet(compiled);
+        VerdictCache cache = verdictCache;
+        // Verdicts of the previous rule set can no longer be hit, since they are keyed by its fingerprint, so they
+        // are only dropped to make room; an unchanged rule set keeps its verdicts
+        if (cache != null && compiled.getFingerprint() != previous.getFingerprint()) {
+            cache.invalidateAll();
+        }
+        return compiled.getTermCount();
+    }
+
+    /**
+     * Check text against the given matcher, through the verdict cache if there is one
+     * @param current matcher to check against
+     * @param postText post text, or null
+     * @return true if the post should be blocked
+     */
+    private boolean isBlocked(TermMatcher current, String postText) {
+        VerdictCache cache = verdictCache;
+        if (cache == null || postText == null) {
+            return current.matches(postText);
+        }
+        return cache.isBlocked(current, postText);
+    }
+
+    /**
+     * Getter for the currently active matcher
+     * @return compiled matcher
+     */
+    public TermMatcher getMatcher() {
+        return matcher.get();
+    }
+}
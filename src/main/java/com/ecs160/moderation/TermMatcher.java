@@ -0,0 +1,340 @@
+package com.ecs160.moderation;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Aho-Corasick automaton over a list of banned terms, compiled once and then only read.
+ * A text is scanned a single time, one char per step, however many terms there are, and matching allocates nothing.
+ *
+ * Terms match anywhere in the text, ignoring case. Both terms and text are normalized one char at a time with
+ * Character.toLowerCase(char), so a post is never copied into a lower-cased String.
+ *
+ * The automaton is stored in flat arrays, with states numbered in breadth-first order:
+ * the transitions of state s are edgeChars/edgeTargets[edgeStart[s], edgeStart[s + 1]), sorted by char, and are
+ * found with a binary search. Missing transitions follow the failure links, as in the textbook construction.
+ * Most failure chains end at the root, so the root's transitions on ASCII chars are also kept in a dense table.
+ *
+ * Each matcher also has a fingerprint of its normalized term set, so that verdicts cached under one rule set are
+ * never served under another, including by other service instances that compiled the same terms.
+ */
+public final class TermMatcher {
+    private static final int ROOT = 0;
+    // Size of the dense transition table of the root
+    private static final int ROOT_TABLE_SIZE = 128;
+    // 64-bit FNV-1a parameters
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Bytes of normalized text buffered per digest update
+    private static final int DIGEST_BUFFER_SIZE = 512;
+
+    private final int termCount;
+    private final long fingerprint;
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] rootTable;
+    private final int[] failure;
+    // Whether a term ends at the state, or at any state on its failure chain
+    private final boolean[] isMatch;
+
+    /**
+     * Compile an automaton matching any of the given terms
+     * @param terms banned terms; blank terms are ignored and surrounding whitespace is trimmed
+     */
+    public TermMatcher(Collection<String> terms) {
+        Trie trie = new Trie();
+        List<String> normalizedTerms = new ArrayList<String>(terms.size());
+        for (String term : terms) {
+            String trimmed = term.trim();
+            if (!trimmed.isEmpty()) {
+                normalizedTerms.add(trie.insert(trimmed));
+            }
+        }
+        this.termCount = normalizedTerms.size();
+        this.fingerprint = fingerprint(normalizedTerms);
+
+        // Number the states breadth-first, so that the transitions of each state can be laid out in one array
+        int stateCount = trie.size();
+        int[] order = new int[stateCount];
+        int[] newIds = new int[stateCount];
+        int[] childBuffer = new int[stateCount];
+        order[0] = ROOT;
+        int queued = 1;
+        for (int head = 0; head < queued; head++) {
+            newIds[order[head]] = head;
+            for (int child = trie.firstChild[order[head]]; child >= 0; child = trie.nextSibling[child]) {
+                order[queued] = child;
+                queued += 1;
+            }
+        }
+
+        this.edgeStart = new int[stateCount + 1];
+        this.edgeChars = new char[stateCount - 1];
+        this.edgeTargets = new int[stateCount - 1];
+        this.rootTable = new int[ROOT_TABLE_SIZE];
+        this.failure = new int[stateCount];
+        this.isMatch = new boolean[stateCount];
+
+        int edges = 0;
+        for (int state = 0; state < stateCount; state++) {
+            int node = order[state];
+            edgeStart[state] = edges;
+            isMatch[state] = trie.isTerminal[node];
+
+            int childCount = 0;
+            for (int child = trie.firstChild[node]; child >= 0; child = trie.nextSibling[child]) {
+                childBuffer[childCount] = child;
+                childCount += 1;
+            }
+            // Sort the children by char for the binary search (insertion sort, since most states have few)
+            for (int i = 1; i < childCount; i++) {
+                int child = childBuffer[i];
+                int j = i - 1;
+                while (j >= 0 && trie.chars[childBuffer[j]] > trie.chars[child]) {
+                    childBuffer[j + 1] = childBuffer[j];
+                    j -= 1;
+                }
+                childBuffer[j + 1] = child;
+            }
+            for (int i = 0; i < childCount; i++) {
+                edgeChars[edges] = trie.chars[childBuffer[i]];
+                edgeTargets[edges] = newIds[childBuffer[i]];
+                edges += 1;
+            }
+        }
+        edgeStart[stateCount] = edges;
+        // Chars without a transition from the root stay at the root, which is state 0
+        for (int edge = edgeStart[ROOT]; edge < edgeStart[ROOT + 1]; edge++) {
+            if (edgeChars[edge] < ROOT_TABLE_SIZE) {
+                rootTable[edgeChars[edge]] = edgeTargets[edge];
+            }
+        }
+
+        // Failure links, breadth-first: a state's failure target is always shallower, so it is already complete
+        for (int state = 0; state < stateCount; state++) {
+            for (int edge = edgeStart[state]; edge < edgeStart[state + 1]; edge++) {
+                int target = edgeTargets[edge];
+                if (state == ROOT) {
+                    failure[target] = ROOT;
+                } else {
+                    failure[target] = next(failure[state], edgeChars[edge]);
+                }
+                isMatch[target] |= isMatch[failure[target]];
+            }
+        }
+    }
+
+    /**
+     * Check whether the text contains any of the terms, ignoring case
+     * @param text text to scan, or null
+     * @return true if some term occurs in the text
+     */
+    public boolean matches(CharSequence text) {
+        if (text == null || termCount == 0) {
+            return false;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            if (isMatch[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getter for number of compiled terms
+     * @return number of terms
+     */
+    public int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * Getter for the fingerprint of the term set, which is the same for any list of the same terms up to case,
+     * order and duplicates
+     * @return 64-bit fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Feed text to a digest as this matcher sees it, i.e. ignoring case, so that texts that must get the same verdict
+     * get the same digest. Normalized chars are fed as two bytes each, big-endian.
+     * @param digest digest to update
+     * @param text text to feed
+     */
+    static void updateNormalized(MessageDigest digest, CharSequence text) {
+        byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            buffer[length] = (byte) (c >>> 8);
+            buffer[length + 1] = (byte) c;
+            length += 2;
+            if (length == buffer.length) {
+                digest.update(buffer, 0, length);
+                length = 0;
+            }
+        }
+        digest.update(buffer, 0, length);
+    }
+
+    /**
+     * Getter for number of automaton states, as a measure of its size
+     * @return number of states
+     */
+    public int getStateCount() {
+        return failure.length;
+    }
+
+    /**
+     * Fingerprint a term set independently of the order and duplicates of the list
+     * @param normalizedTerms normalized terms, sorted in place
+     * @return 64-bit fingerprint
+     */
+    private static long fingerprint(List<String> normalizedTerms) {
+        Collections.sort(normalizedTerms);
+        long hash = FNV_OFFSET_BASIS;
+        String previous = null;
+        for (String term : normalizedTerms) {
+            if (term.equals(previous)) {
+                continue;
+            }
+            // Length first, so that term boundaries are part of the hash
+            hash = (hash ^ term.length()) * FNV_PRIME;
+            for (int i = 0; i < term.length(); i++) {
+                hash = (hash ^ term.charAt(i)) * FNV_PRIME;
+            }
+            previous = term;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spread the bits of an FNV hash, whose low bits mix poorly, with the MurmurHash3 finalizer
+     * @param hash hash to mix
+     * @return mixed hash
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Follow the transition on the given char, falling back along the failure links
+     * @param state current state
+     * @param c normalized char
+     * @return next state
+     */
+    private int next(int state, char c) {
+        while (state != ROOT) {
+            int target = transition(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            state = failure[state];
+        }
+        if (c < ROOT_TABLE_SIZE) {
+            return rootTable[c];
+        }
+        int target = transition(ROOT, c);
+        return target >= 0 ? target : ROOT;
+    }
+
+    /**
+     * Look up the direct transition of a state on the given char
+     * @param state state
+     * @param c normalized char
+     * @return target state, or -1 if the state has no transition on c
+     */
+    private int transition(int state, char c) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Trie of the normalized terms, only used while compiling.
+     * Children are kept as linked lists in parallel arrays rather than a map per node, so that tries of 100k terms
+     * are built without millions of small objects.
+     */
+    private static final class Trie {
+        private char[] chars;
+        private int[] firstChild;
+        private int[] nextSibling;
+        private boolean[] isTerminal;
+        private int size;
+
+        Trie() {
+            this.chars = new char[64];
+            this.firstChild = new int[64];
+            this.nextSibling = new int[64];
+            this.isTerminal = new boolean[64];
+            this.size = 0;
+            addNode((char) 0);
+        }
+
+        int size() {
+            return size;
+        }
+
+        String insert(String term) {
+            char[] normalized = new char[term.length()];
+            int node = ROOT;
+            for (int i = 0; i < term.length(); i++) {
+                char c = Character.toLowerCase(term.charAt(i));
+                normalized[i] = c;
+                int child = firstChild[node];
+                while (child >= 0 && chars[child] != c) {
+                    child = nextSibling[child];
+                }
+                if (child < 0) {
+                    child = addNode(c);
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                node = child;
+            }
+            isTerminal[node] = true;
+            return new String(normalized);
+        }
+
+        private int addNode(char c) {
+            if (size == chars.length) {
+                int capacity = size * 2;
+                chars = Arrays.copyOf(chars, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                isTerminal = Arrays.copyOf(isTerminal, capacity);
+            }
+            chars[size] = c;
+            firstChild[size] = -1;
+            nextSibling[size] = -1;
+            size += 1;
+            return size - 1;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.ecs160.moderation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Cache of moderation verdicts in front of the TermMatcher, for feeds where bots post the same text over and over.
+ * A repeated text costs one digest over its chars instead of a scan of the automaton.
+ *
+ * Verdicts are keyed by the SHA-256 digest of the text as the matcher normalizes it (ignoring case), followed by the
+ * fingerprint of the rule set it was checked against. A verdict is therefore never served under another rule set,
+ * even when it was cached by a request that raced a reload; ModerationEngine drops the whole cache on a reload just
+ * to free the room. A fast 64-bit hash would not do here: posters choose the texts, and a spam text crafted to
+ * collide with a clean one would inherit its verdict, on every instance sharing verdicts.
+ *
+ * The local cache is a bounded Caffeine cache. Optionally, verdicts are also shared through Redis with other
+ * instances running the same rule set: a local miss then costs a GET, and a computed verdict a SETEX. That only pays
+ * off when matching costs more than a round trip, e.g. for very large term lists, so it is off by default.
+ */
+public class VerdictCache {
+    // Default maximum number of verdicts held locally
+    public static final long DEFAULT_MAX_SIZE = 100000;
+
+    private static final String KEY_PREFIX = "moderation:verdict:";
+
+    private final Cache<VerdictKey, Boolean> verdicts;
+    // Pool of the Redis that verdicts are shared through, or null to keep them local
+    private volatile JedisPool jedisPool;
+    private volatile long sharedTtlSeconds;
+    private final LongAdder sharedHits;
+    private final LongAdder sharedMisses;
+    private final LongAdder sharedErrors;
+
+    /**
+     * Instantiate a new local verdict cache
+     * @param maxSize maximum number of verdicts held; the least valuable ones are evicted beyond it
+     */
+    public VerdictCache(long maxSize) {
+        this.verdicts = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        this.sharedHits = new LongAdder();
+        this.sharedMisses = new LongAdder();
+        this.sharedErrors = new LongAdder();
+    }
+
+    /**
+     * Share verdicts with other instances through Redis. Only use this from threads that may block.
+     * @param jedisPool pool to borrow connections from, or null to keep verdicts local
+     * @param sharedTtlSeconds time after which a shared verdict expires, so that verdicts of old rule sets go away
+     */
+    public void setSharedStore(JedisPool jedisPool, long sharedTtlSeconds) {
+        if (jedisPool != null && sharedTtlSeconds < 1) {
+            throw new IllegalArgumentException("Shared verdict TTL must be at least 1 second");
+        }
+        this.sharedTtlSeconds = sharedTtlSeconds;
+        this.jedisPool = jedisPool;
+    }
+
+    /**
+     * Report the local cache's size, hit rate and evictions, and the outcomes of shared lookups, through the registry
+     * @param registry registry to register the meters with
+     */
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, verdicts, "moderation.verdicts");
+        FunctionCounter.builder("moderation.verdicts.shared", sharedHits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("Local verdict cache misses looked up in Redis")
+                .register(registry);
+        FunctionCounter.builder("moderation.verdicts.shared", sharedMisses, LongAdder::sum)
+                .tag("result", "miss")
+                .description("Local verdict cache misses looked up in Redis")
+                .register(registry);
+        FunctionCounter.builder("moderation.verdicts.shared", sharedErrors, LongAdder::sum)
+                .tag("result", "error")
+                .description("Local verdict cache misses looked up in Redis")
+                .register(registry);
+    }
+
+    /**
+     * Get the verdict of the given text under the given rule set, checking and caching it on a miss
+     * @param matcher rule set to check the text against
+     * @param text post text
+     * @return true if the text contains a banned term
+     */
+    public boolean isBlocked(TermMatcher matcher, String text) {
+        VerdictKey key = VerdictKey.of(matcher, text);
+        Boolean verdict = verdicts.getIfPresent(key);
+        if (verdict != null) {
+            return verdict;
+        }
+
+        // Not Cache.get(key, loader), which would hold a map lock across the Redis round trip
+        JedisPool pool = jedisPool;
+        verdict = pool != null ? readShared(pool, key) : null;
+        if (verdict == null) {
+            verdict = matcher.matches(text);
+            if (pool != null) {
+                writeShared(pool, key, verdict);
+            }
+        }
+        verdicts.put(key, verdict);
+        return verdict;
+    }
+
+    /**
+     * Drop every locally cached verdict
+     */
+    public void invalidateAll() {
+        verdicts.invalidateAll();
+    }
+
+    /**
+     * Getter for hit, miss and eviction statistics of the local cache
+     * @return cache statistics
+     */
+    public CacheStats getStats() {
+        return verdicts.stats();
+    }
+
+    /**
+     * Getter for number of verdicts held locally
+     * @return approximate number of verdicts
+     */
+    public long size() {
+        return verdicts.estimatedSize();
+    }
+
+    /**
+     * Look up a verdict shared by another instance. The cache is only an optimization, so Redis errors are counted
+     * and the verdict is computed locally instead.
+     * @param pool pool to borrow a connection from
+     * @param key verdict key
+     * @return shared verdict, or null if there is none
+     */
+    private Boolean readShared(JedisPool pool, VerdictKey key) {
+        String value;
+        try (Jedis jedis = pool.getResource()) {
+            value = jedis.get(KEY_PREFIX + key.toHex());
+        } catch (JedisException ex) {
+            sharedErrors.increment();
+            return null;
+        }
+        if (value == null) {
+            sharedMisses.increment();
+            return null;
+        }
+        sharedHits.increment();
+        return value.equals("1");
+    }
+
+    /**
+     * Share a computed verdict with other instances
+     * @param pool pool to borrow a connection from
+     * @param key verdict key
+     * @param verdict computed verdict
+     */
+    private void writeShared(JedisPool pool, VerdictKey key, boolean verdict) {
+        try (Jedis jedis = pool.getResource()) {
+            jedis.setex(KEY_PREFIX + key.toHex(), sharedTtlSeconds, verdict ? "1" : "0");
+        } catch (JedisException ex) {
+            sharedErrors.increment();
+        }
+    }
+
+    /*
+     * SHA-256 digest of a normalized text and a rule set fingerprint, held as four longs rather than a byte array,
+     * so that it compares by value and costs a single small object per cached verdict.
+     */
+    private static final class VerdictKey {
+        private static final HexFormat HEX = HexFormat.of();
+
+        private final long word0;
+        private final long word1;
+        private final long word2;
+        private final long word3;
+
+        /**
+         * Instantiate a key from its digest
+         * @param digest 32-byte SHA-256 digest
+         */
+        private VerdictKey(byte[] digest) {
+            ByteBuffer words = ByteBuffer.wrap(digest);
+            this.word0 = words.getLong();
+            this.word1 = words.getLong();
+            this.word2 = words.getLong();
+            this.word3 = words.getLong();
+        }
+
+        /**
+         * Compute the key of a text under a rule set
+         * @param matcher rule set the text is checked against
+         * @param text post text
+         * @return verdict key
+         */
+        static VerdictKey of(TermMatcher matcher, String text) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(ex);
+            }
+            TermMatcher.updateNormalized(digest, text);
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(matcher.getFingerprint()).array());
+            return new VerdictKey(digest.digest());
+        }
+
+        /**
+         * Getter for the key as 64 hex digits, as used in Redis keys
+         * @return hex digest
+         */
+        String toHex() {
+            return HEX.toHexDigits(word0) + HEX.toHexDigits(word1) + HEX.toHexDigits(word2) + HEX.toHexDigits(word3);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof VerdictKey)) {
+                return false;
+            }
+            VerdictKey key = (VerdictKey) other;
+            return word0 == key.word0 && word1 == key.word1 && word2 == key.word2 && word3 == key.word3;
+        }
+
+        @Override
+        public int hashCode() {
+            // Digest bits are already uniformly spread
+            return (int) word0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.ecs160.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Process-wide registry of reflected object attributes, keyed by persistable class.
+ * Reflecting a class scans its declared fields, resolves list item classes and compiles field accessors, so this
+ * work is done once per class and then shared across every Session instance instead of once per added object.
+ *
+ * Reflected object attributes are immutable once constructed, so they are safe to share between threads.
+ */
+public final class AttributesRegistry {
+    private static final ConcurrentMap<Class<?>, ReflectedObjectAttributes> attrsByClass = new ConcurrentHashMap<Class<?>, ReflectedObjectAttributes>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private AttributesRegistry() { }
+
+    /**
+     * Get the reflected object attributes for the given class, reflecting the class on first use
+     * @param objClass persistable class
+     * @return shared reflected object attributes for the class
+     * @throws Exception Reflection code may generate exceptions if the class is not persistable
+     */
+    public static ReflectedObjectAttributes get(Class<?> objClass) throws Exception {
+        ReflectedObjectAttributes attrs = attrsByClass.get(objClass);
+        if (attrs != null) {
+            hits.increment();
+            return attrs;
+        }
+        misses.increment();
+
+        // Reflection is done outside of computeIfAbsent(), because building one class may recursively build the
+        // classes of its list fields, and ConcurrentHashMap does not allow recursive updates.
+        // If two threads race on the same miss, both build equivalent attributes and only the first one is kept.
+        Map<Class<?>, ReflectedObjectAttributes> builtAttrs = new HashMap<Class<?>, ReflectedObjectAttributes>();
+        new ReflectedObjectAttributes(objClass, builtAttrs);
+        for (Map.Entry<Class<?>, ReflectedObjectAttributes> builtPair : builtAttrs.entrySet()) {
+            attrsByClass.putIfAbsent(builtPair.getKey(), builtPair.getValue());
+        }
+
+        return attrsByClass.get(objClass);
+    }
+
+    /**
+     * Eagerly reflect the given classes, e.g. at application startup, so that no Session pays for it later
+     * @param objClasses persistable classes
+     * @throws Exception Reflection code may generate exceptions if a class is not persistable
+     */
+    public static void preload(Class<?>... objClasses) throws Exception {
+        for (Class<?> objClass : objClasses) {
+            get(objClass);
+        }
+    }
+
+    /**
+     * Get already reflected attributes without building them or counting a lookup
+     * @param objClass persistable class
+     * @return reflected object attributes, or null if the class has not been reflected yet
+     */
+    static ReflectedObjectAttributes peek(Class<?> objClass) {
+        return attrsByClass.get(objClass);
+    }
+
+    /**
+     * Getter for number of lookups served from the registry
+     * @return number of hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter for number of lookups that had to reflect the class
+     * @return number of misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter for number of reflected classes
+     * @return number of classes in the registry
+     */
+    public static int size() {
+        return attrsByClass.size();
+    }
+}
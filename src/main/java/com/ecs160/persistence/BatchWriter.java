@@ -0,0 +1,179 @@
+package com.ecs160.persistence;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipeliningBase;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Buffers object writes generated during a single persistAll() call and sends them to Redis in batches.
+ * A batch is either sent through a Jedis Pipeline (one round trip per batch), or wrapped in MULTI/EXEC
+ * if the session requested atomic persistence. The session's codec decides the commands used per object.
+ * A batch only counts as written once every reply to it is checked: Redis reports a failed command, such as a
+ * WRONGTYPE on a key written by another codec, as an error reply rather than by failing the round trip.
+ */
+class BatchWriter {
+    private final Jedis jedisSession;
+    private final RecordCodec codec;
+    private final int batchSize;
+    private final boolean isAtomic;
+    // Pending writes keyed by object id, so that an object reachable twice within one batch is only written once
+    private final Map<String, Map<String, String>> pending;
+    private final Map<String, ReflectedObjectAttributes> pendingAttrs;
+    // Full persisted state of each pending object, recorded as its snapshot once the batch is flushed
+    private final Map<String, Map<String, String>> pendingFull;
+    // Snapshots of the session, or null if dirty tracking is disabled
+    private final Map<String, Map<String, String>> snapshots;
+    // Record cache to invalidate written ids in, or null if the session has none
+    private final RecordCache recordCache;
+    // Meters that round trips and written objects are recorded in, or null
+    private final PersistenceMetrics metrics;
+    private int objectsWritten;
+    private int objectsSkipped;
+    private int fieldsWritten;
+    private int fieldsSkipped;
+    private int batchesFlushed;
+
+    /**
+     * Instantiate a new batch writer
+     * @param jedisSession Jedis session to send batches through
+     * @param codec codec that decides how each object is stored
+     * @param batchSize maximum number of objects per batch
+     * @param isAtomic whether each batch should be wrapped in MULTI/EXEC
+     * @param snapshots snapshots to update after each flush, or null if dirty tracking is disabled
+     * @param recordCache record cache to invalidate written ids in, or null
+     * @param metrics meters to record round trips in, or null
+     */
+    BatchWriter(Jedis jedisSession, RecordCodec codec, int batchSize, boolean isAtomic, Map<String, Map<String, String>> snapshots, RecordCache recordCache, PersistenceMetrics metrics) {
+        this.jedisSession = jedisSession;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.isAtomic = isAtomic;
+        this.pending = new LinkedHashMap<String, Map<String, String>>();
+        this.pendingAttrs = new LinkedHashMap<String, ReflectedObjectAttributes>();
+        this.pendingFull = new LinkedHashMap<String, Map<String, String>>();
+        this.snapshots = snapshots;
+        this.recordCache = recordCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queue a write for the given object, flushing the current batch if it is full
+     * @param attrs reflected object attributes of the object
+     * @param objId id of the object, used as the Redis key
+     * @param fieldPairs persisted field names and values to write, which may be only the changed fields
+     * @param fullPairs all persisted field names and values of the object
+     * @throws PersistenceException If a flushed batch is rejected by Redis
+     */
+    void write(ReflectedObjectAttributes attrs, String objId, Map<String, String> fieldPairs, Map<String, String> fullPairs) throws PersistenceException {
+        // Field counts are taken when the batch is flushed, so that an id queued twice in one batch counts once
+        pending.put(objId, fieldPairs);
+        pendingAttrs.put(objId, attrs);
+        pendingFull.put(objId, fullPairs);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Record that an unchanged object was not written
+     * @param fieldCount number of persisted fields of the object
+     */
+    void skip(int fieldCount) {
+        objectsSkipped += 1;
+        fieldsSkipped += fieldCount;
+    }
+
+    /**
+     * Send all pending writes to Redis in a single round trip
+     * @throws PersistenceException If Redis rejects any command of the batch
+     */
+    void flush() throws PersistenceException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        List<Object> replies;
+        if (isAtomic) {
+            Transaction transaction = jedisSession.multi();
+            queueAll(transaction);
+            replies = transaction.exec();
+            if (replies == null) {
+                throw new PersistenceException("MULTI/EXEC of " + pending.size() + " objects was aborted");
+            }
+        } else {
+            Pipeline pipeline = jedisSession.pipelined();
+            queueAll(pipeline);
+            replies = pipeline.syncAndReturnAll();
+        }
+        checkReplies(replies);
+        if (metrics != null) {
+            metrics.recordRoundTrip(codec.getWriteCommand(), isAtomic, System.nanoTime() - startNanos);
+            metrics.recordPersisted(pending.size());
+        }
+
+        // Only once the batch has reached Redis do its objects count as unchanged for the next flush
+        if (snapshots != null) {
+            snapshots.putAll(pendingFull);
+        }
+        // Write-through invalidation, so that later loads see what was just written
+        if (recordCache != null) {
+            for (String objId : pending.keySet()) {
+                recordCache.invalidate(objId);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> write : pending.entrySet()) {
+            fieldsWritten += write.getValue().size();
+            fieldsSkipped += pendingFull.get(write.getKey()).size() - write.getValue().size();
+        }
+        objectsWritten += pending.size();
+        batchesFlushed += 1;
+        pending.clear();
+        pendingAttrs.clear();
+        pendingFull.clear();
+    }
+
+    /**
+     * Fail the batch if any of its commands got an error reply.
+     * Snapshots and the record cache are then left as they were, so the batch is not taken as written.
+     * @param replies replies to the commands of the batch, in the order they were queued
+     * @throws PersistenceException If any reply is an error
+     */
+    private void checkReplies(List<Object> replies) throws PersistenceException {
+        for (Object reply : replies) {
+            if (reply instanceof JedisDataException) {
+                throw new PersistenceException("Redis rejected a write of the batch: " + ((JedisDataException) reply).getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queue every pending write on the given pipeline or transaction
+     * @param pipeline pipeline or transaction to queue on
+     */
+    private void queueAll(PipeliningBase pipeline) {
+        for (Map.Entry<String, Map<String, String>> write : pending.entrySet()) {
+            codec.queueWrite(pipeline, pendingAttrs.get(write.getKey()), write.getKey(), write.getValue());
+        }
+    }
+
+    /**
+     * Flush any remaining writes and report what was sent
+     * @return number of objects written and batches flushed
+     * @throws PersistenceException If Redis rejects any command of the last batch
+     */
+    PersistResult close() throws PersistenceException {
+        flush();
+        if (metrics != null && objectsSkipped > 0) {
+            metrics.recordSkipped(objectsSkipped);
+        }
+        return new PersistResult(objectsWritten, objectsSkipped, fieldsWritten, fieldsSkipped, batchesFlushed);
+    }
+}
@@ -0,0 +1,184 @@
+package com.ecs160.persistence;
+
+import redis.clients.jedis.PipeliningBase;
+import redis.clients.jedis.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * Compact codec, which stores each object as a single binary String value instead of a hash.
+ *
+ * Field names are not stored, since the field order is fixed by the reflected object attributes of the class:
+ * - Integer and Long fields are zigzag varints
+ * - String fields are a varint byte length followed by UTF-8 bytes
+ * - list fields are a varint count followed by the packed ids, each as a varint if the item id is numeric
+ *   or as a length-prefixed String otherwise
+ *
+ * The value starts with a format version byte, so the layout can change without misreading older values.
+ */
+public class BinaryRecordCodec implements RecordCodec {
+    private static final byte FORMAT_VERSION = 1;
+
+    @Override
+    public void queueWrite(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId, Map<String, String> record) {
+        pipeline.set(objId.getBytes(StandardCharsets.UTF_8), encode(attrs, record));
+    }
+
+    @Override
+    public Supplier<Map<String, String>> queueRead(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId) {
+        Response<byte[]> response = pipeline.get(objId.getBytes(StandardCharsets.UTF_8));
+        return () -> decode(attrs, response.get());
+    }
+
+    @Override
+    public String getWriteCommand() {
+        return "SET";
+    }
+
+    @Override
+    public String getReadCommand() {
+        return "GET";
+    }
+
+    /**
+     * Encode the persisted fields of one object
+     * @param attrs reflected object attributes of the object
+     * @param record persisted field names and values
+     * @return encoded value
+     */
+    byte[] encode(ReflectedObjectAttributes attrs, Map<String, String> record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(FORMAT_VERSION);
+
+        for (FieldAccessor field : attrs.getFields()) {
+            writeValue(out, field.isNumeric(), record.get(field.getName()));
+        }
+
+        for (Map.Entry<FieldAccessor, ReflectedObjectAttributes> listPair : attrs.getListFieldAttrs().entrySet()) {
+            String idList = record.get(listPair.getKey().getName());
+            if (idList.isEmpty()) {
+                writeVarLong(out, 0);
+                continue;
+            }
+
+            boolean isNumericId = listPair.getValue().getIdAccessor().isNumeric();
+            String[] ids = idList.split(",");
+            writeVarLong(out, ids.length);
+            for (String id : ids) {
+                writeValue(out, isNumericId, id);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the persisted fields of one object
+     * @param attrs reflected object attributes of the object
+     * @param value encoded value, or null if the key does not exist
+     * @return persisted field names and values, empty if the key does not exist
+     */
+    Map<String, String> decode(ReflectedObjectAttributes attrs, byte[] value) {
+        Map<String, String> record = new HashMap<String, String>();
+        if (value == null) {
+            // Mirror HGETALL, which returns an empty hash for a missing key
+            return record;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(value);
+        if (in.get() != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported binary record format version " + value[0]);
+        }
+
+        for (FieldAccessor field : attrs.getFields()) {
+            record.put(field.getName(), readValue(in, field.isNumeric()));
+        }
+
+        for (Map.Entry<FieldAccessor, ReflectedObjectAttributes> listPair : attrs.getListFieldAttrs().entrySet()) {
+            boolean isNumericId = listPair.getValue().getIdAccessor().isNumeric();
+            long count = readVarLong(in);
+            StringBuilder idList = new StringBuilder();
+            for (long i = 0; i < count; i++) {
+                if (i > 0) {
+                    idList.append(',');
+                }
+                idList.append(readValue(in, isNumericId));
+            }
+            record.put(listPair.getKey().getName(), idList.toString());
+        }
+
+        return record;
+    }
+
+    /**
+     * Write a single value, as a zigzag varint if numeric or as a length-prefixed UTF-8 String otherwise
+     * @param out stream to write to
+     * @param isNumeric whether the value is an Integer or Long
+     * @param strValue value as a String
+     */
+    private static void writeValue(ByteArrayOutputStream out, boolean isNumeric, String strValue) {
+        if (isNumeric) {
+            long value = Long.parseLong(strValue);
+            // Zigzag encoding keeps small negative numbers short
+            writeVarLong(out, (value << 1) ^ (value >> 63));
+        } else {
+            byte[] bytes = strValue.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Read a single value written by writeValue()
+     * @param in buffer to read from
+     * @param isNumeric whether the value is an Integer or Long
+     * @return value as a String
+     */
+    private static String readValue(ByteBuffer in, boolean isNumeric) {
+        if (isNumeric) {
+            long zigzag = readVarLong(in);
+            return Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+
+        int length = (int) readVarLong(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte with the high bit marking that more bytes follow
+     * @param out stream to write to
+     * @param value value to write
+     */
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read an unsigned varint written by writeVarLong()
+     * @param in buffer to read from
+     * @return value read
+     */
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
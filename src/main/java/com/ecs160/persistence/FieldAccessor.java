@@ -0,0 +1,168 @@
+package com.ecs160.persistence;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/*
+ * Compiled accessor for a single persistable field.
+ * The getter and setter method handles are looked up once when the class is reflected, so reading or writing
+ * the field afterwards no longer toggles setAccessible() on every call. Unlike toggling setAccessible(), the
+ * handles are immutable and can safely be shared between threads.
+ */
+public class FieldAccessor {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType PARSER_TYPE = MethodType.methodType(Object.class, String.class);
+
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    // Hash field the value was persisted under before the field was renamed, or null
+    private final String legacyName;
+    // Static method converting a value of the legacy field, erased to take a String and return Object, or null
+    private final MethodHandle legacyParser;
+
+    /**
+     * Compile an accessor for the given field
+     * @param field field to access
+     * @throws IllegalAccessException If the field cannot be accessed from the persistence package
+     * @throws NotPersistableException If the legacy parser of the field does not exist
+     */
+    public FieldAccessor(Field field) throws IllegalAccessException, NotPersistableException {
+        this.field = field;
+        // Private fields are only visible through a lookup with private access to the declaring class
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+        // Erase the handle types to Object so that invokeExact() can be used without knowing the field type statically
+        this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+
+        PersistableField fieldAnnot = field.getAnnotation(PersistableField.class);
+        this.legacyName = fieldAnnot != null && !fieldAnnot.legacyName().isEmpty() ? fieldAnnot.legacyName() : null;
+        if (legacyName != null && !fieldAnnot.legacyParser().isEmpty()) {
+            try {
+                this.legacyParser = lookup.findStatic(field.getDeclaringClass(), fieldAnnot.legacyParser(), MethodType.methodType(field.getType(), String.class))
+                        .asType(PARSER_TYPE);
+            } catch (NoSuchMethodException ex) {
+                throw new NotPersistableException(String.format("Legacy parser \"%s\" of field \"%s\" must be a static method taking a String and returning %s",
+                        fieldAnnot.legacyParser(), field.getName(), field.getType().getName()));
+            }
+        } else {
+            this.legacyParser = null;
+        }
+    }
+
+    /**
+     * Getter for field
+     * @return field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Getter for the name of the field, which is also its name in the persisted Redis hash
+     * @return field name
+     */
+    public String getName() {
+        return field.getName();
+    }
+
+    /**
+     * Getter for the name the field was persisted under before it was renamed
+     * @return legacy hash field name, or null if the field was never renamed
+     */
+    public String getLegacyName() {
+        return legacyName;
+    }
+
+    /**
+     * Whether the field holds an Integer or Long, as opposed to a String
+     * @return true if the field is numeric
+     */
+    public boolean isNumeric() {
+        Class<?> type = field.getType();
+        return type == Integer.class || type == int.class || type == Long.class || type == long.class;
+    }
+
+    /**
+     * Read the field from the given object
+     * @param obj object to read from
+     * @return field value, boxed if the field is primitive
+     */
+    public Object get(Object obj) {
+        try {
+            return (Object) getter.invokeExact(obj);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            // A field getter cannot throw a checked exception, but invokeExact() is declared to throw Throwable
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Write the field on the given object
+     * @param obj object to write to
+     * @param value new field value
+     */
+    public void set(Object obj, Object value) {
+        try {
+            setter.invokeExact(obj, value);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Write the field on the given object from its String form, as stored in Redis.
+     * Given HW2 assumptions, persisted fields are either Strings or Integers, and we also accept Longs.
+     * @param obj object to write to
+     * @param strValue new field value as a String
+     */
+    public void setFromString(Object obj, String strValue) {
+        set(obj, fromString(strValue));
+    }
+
+    /**
+     * Write the field on the given object from the value of its legacy hash field, as stored before it was renamed
+     * @param obj object to write to
+     * @param strValue value of the legacy field
+     */
+    public void setFromLegacyString(Object obj, String strValue) {
+        if (legacyParser == null) {
+            setFromString(obj, strValue);
+            return;
+        }
+        try {
+            set(obj, (Object) legacyParser.invokeExact(strValue));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Convert the String form of a value into the type of this field
+     * @param strValue value as a String
+     * @return value converted to the field type
+     */
+    private Object fromString(String strValue) {
+        Class<?> type = field.getType();
+        if (strValue == null || type == String.class) {
+            return strValue;
+        }
+        if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(strValue);
+        }
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(strValue);
+        }
+
+        return strValue;
+    }
+}
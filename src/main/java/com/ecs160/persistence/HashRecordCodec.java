@@ -0,0 +1,41 @@
+package com.ecs160.persistence;
+
+import redis.clients.jedis.PipeliningBase;
+import redis.clients.jedis.Response;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * Default codec, which stores each object as a Redis hash of field names to String values.
+ * This is the HW2 storage format, readable with plain HGETALL.
+ */
+public class HashRecordCodec implements RecordCodec {
+    @Override
+    public void queueWrite(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId, Map<String, String> record) {
+        // Object persistence structure allows for single hset() call to persist data
+        pipeline.hset(objId, record);
+    }
+
+    @Override
+    public boolean isPartialWriteSupported() {
+        // HSET only overwrites the given hash fields
+        return true;
+    }
+
+    @Override
+    public Supplier<Map<String, String>> queueRead(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId) {
+        Response<Map<String, String>> response = pipeline.hgetAll(objId);
+        return response::get;
+    }
+
+    @Override
+    public String getWriteCommand() {
+        return "HSET";
+    }
+
+    @Override
+    public String getReadCommand() {
+        return "HGETALL";
+    }
+}
@@ -0,0 +1,220 @@
+package com.ecs160.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * First-level cache of a Session, mapping (class, id) to the one object instance that the session materialized
+ * for it. Repeated loads of the same id within a session return the same instance without a round trip to Redis,
+ * including list items reachable from several parents.
+ *
+ * The map is bounded and evicts the least recently used entry, so long-lived sessions do not grow without limit.
+ * Eviction only means a later load materializes a fresh instance.
+ *
+ * Access is guarded by a ReentrantLock rather than synchronized methods, so that request threads sharing a session
+ * in virtual-thread mode park on contention instead of pinning their carrier threads.
+ */
+public class IdentityMap {
+    // Default maximum number of objects held by one session
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final LinkedHashMap<Key, Object> objsByKey;
+    private final ReentrantLock lock;
+    private int maxSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Instantiate a new identity map with the default maximum size
+     */
+    public IdentityMap() {
+        this.maxSize = DEFAULT_MAX_SIZE;
+        this.lock = new ReentrantLock();
+        // Access order, so that the eldest entry is the least recently used one
+        this.objsByKey = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > maxSize) {
+                    evictions += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Set the maximum number of objects held
+     * @param maxSize maximum number of objects, must be at least 1
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Identity map size must be at least 1");
+        }
+        lock.lock();
+        try {
+            this.maxSize = maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the instance already materialized for the given class and id
+     * @param objClass persistable class
+     * @param id object id
+     * @return materialized instance, or null if there is none
+     */
+    public Object get(Class<?> objClass, String id) {
+        lock.lock();
+        try {
+            Object obj = objsByKey.get(new Key(objClass, id));
+            if (obj != null) {
+                hits += 1;
+            } else {
+                misses += 1;
+            }
+            return obj;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the instance materialized for the given class and id
+     * @param objClass persistable class
+     * @param id object id
+     * @param obj materialized instance
+     */
+    public void put(Class<?> objClass, String id, Object obj) {
+        lock.lock();
+        try {
+            objsByKey.put(new Key(objClass, id), obj);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the instance recorded for the given class and id, unless another instance replaced it since
+     * @param objClass persistable class
+     * @param id object id
+     * @param obj instance to remove
+     */
+    public void remove(Class<?> objClass, String id, Object obj) {
+        lock.lock();
+        try {
+            objsByKey.remove(new Key(objClass, id), obj);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove every held object
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            objsByKey.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for number of objects held
+     * @return number of objects held
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return objsByKey.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for number of lookups that found an instance
+     * @return number of hits
+     */
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for number of lookups that found no instance
+     * @return number of misses
+     */
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for number of objects evicted to stay within the maximum size
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for fraction of lookups that found an instance
+     * @return hit rate between 0 and 1, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Identity of a persisted object: its persistable class and its id
+     */
+    private static final class Key {
+        private final Class<?> objClass;
+        private final String id;
+
+        Key(Class<?> objClass, String id) {
+            this.objClass = objClass;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key otherKey = (Key) other;
+            return objClass == otherKey.objClass && id.equals(otherKey.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(objClass, id);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ecs160.persistence;
+
+/*
+ * Pairs an object awaiting its fields from Redis with the reflected object attributes used to set those fields.
+ * Objects of one level of the object graph are collected as PendingLoads so that they can be fetched in a single
+ * pipelined batch.
+ */
+class PendingLoad {
+    private final Object object;
+    private final ReflectedObjectAttributes objAttrs;
+
+    /**
+     * Instantiate a PendingLoad structure
+     * @param object object with its id already set
+     * @param objAttrs reflected object attributes of the object
+     */
+    PendingLoad(Object object, ReflectedObjectAttributes objAttrs) {
+        this.object = object;
+        this.objAttrs = objAttrs;
+    }
+
+    /**
+     * Getter for object
+     * @return object
+     */
+    Object getObject() {
+        return object;
+    }
+
+    /**
+     * Getter for reflected object attributes
+     * @return reflected object attributes
+     */
+    ReflectedObjectAttributes getObjAttrs() {
+        return objAttrs;
+    }
+}
@@ -0,0 +1,85 @@
+package com.ecs160.persistence;
+
+/*
+ * Summary of a single persistAll() call.
+ * Reports how many objects were written to Redis and how many batches (round trips) were needed to do so.
+ * With dirty tracking enabled, it also reports how many objects and fields were skipped as unchanged.
+ */
+public class PersistResult {
+    private final int objectsWritten;
+    private final int objectsSkipped;
+    private final int fieldsWritten;
+    private final int fieldsSkipped;
+    private final int batchesFlushed;
+
+    /**
+     * Instantiate a new persist result
+     * @param objectsWritten number of objects written to Redis
+     * @param objectsSkipped number of unchanged objects that were not written
+     * @param fieldsWritten number of fields written to Redis
+     * @param fieldsSkipped number of unchanged fields that were not written
+     * @param batchesFlushed number of batches flushed to Redis
+     */
+    public PersistResult(int objectsWritten, int objectsSkipped, int fieldsWritten, int fieldsSkipped, int batchesFlushed) {
+        this.objectsWritten = objectsWritten;
+        this.objectsSkipped = objectsSkipped;
+        this.fieldsWritten = fieldsWritten;
+        this.fieldsSkipped = fieldsSkipped;
+        this.batchesFlushed = batchesFlushed;
+    }
+
+    /**
+     * Combine this result with the result of another partition or batch of the same ingest
+     * @param other other result
+     * @return combined result
+     */
+    public PersistResult plus(PersistResult other) {
+        return new PersistResult(
+                objectsWritten + other.objectsWritten,
+                objectsSkipped + other.objectsSkipped,
+                fieldsWritten + other.fieldsWritten,
+                fieldsSkipped + other.fieldsSkipped,
+                batchesFlushed + other.batchesFlushed
+        );
+    }
+
+    /**
+     * Getter for number of objects written
+     * @return number of objects written
+     */
+    public int getObjectsWritten() {
+        return objectsWritten;
+    }
+
+    /**
+     * Getter for number of unchanged objects skipped
+     * @return number of objects skipped
+     */
+    public int getObjectsSkipped() {
+        return objectsSkipped;
+    }
+
+    /**
+     * Getter for number of fields written
+     * @return number of fields written
+     */
+    public int getFieldsWritten() {
+        return fieldsWritten;
+    }
+
+    /**
+     * Getter for number of unchanged fields skipped
+     * @return number of fields skipped
+     */
+    public int getFieldsSkipped() {
+        return fieldsSkipped;
+    }
+
+    /**
+     * Getter for number of batches flushed
+     * @return number of batches flushed
+     */
+    public int getBatchesFlushed() {
+        return batchesFlushed;
+    }
+}
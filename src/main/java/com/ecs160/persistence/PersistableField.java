@@ -5,6 +5,13 @@ import java.lang.annotation.RetentionPolicy;
 
 /*
  * Annotation to enable a class field as persistable
+ * The optional "legacyName" field names the hash field the value was persisted under before the field was renamed.
+ * Records without the current field are read from the legacy one instead, converted by "legacyParser", the name of
+ * a static method of the declaring class taking the legacy String and returning the field type.
  */
 @Retention(RetentionPolicy.RUNTIME)
-public @interface PersistableField { }
+public @interface PersistableField {
+    String legacyName() default "";
+
+    String legacyParser() default "";
+}
@@ -1,58 +1,225 @@
 package com.ecs160.persistence;
 
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.util.proxy.MethodFilter;
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyFactory;
 import javassist.util.proxy.ProxyObject;
-import redis.clients.jedis.Jedis;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
  * Class provides a static proxy generation method,
  * which is used to enable lazy loading on a class labelled as @Persistable with a list field labelled
  * with @LazyLoad and @PersistableListField.
+ *
+ * The proxy class of each persistable class is generated once and cached, so creating a proxy per list item only
+ * costs an object allocation. The proxy class only intercepts methods that access a persisted field other than the
+ * id, which is found by scanning the bytecode of the persistable class once.
  */
 public class PersistableProxy {
+    // Compiled default constructor of the proxy class, per persistable class
+    private static final ConcurrentMap<Class<?>, MethodHandle> proxyConstructors = new ConcurrentHashMap<Class<?>, MethodHandle>();
+
     /**
      * Dynamically create a proxy around the given persistable object, that is an item within a persistable list field.
-     * @param session persistence session that should be captured and then later called for session.load() if a getter on this persisted class is invoked.
+     * @param session persistence session that should be captured and then later called for session.load() if a persisted field of this class is accessed.
      * @param fieldAttrs reflected object attributes for the given object class
      * @param id retrieved id field value for the given object. This is the only field that is immediately retrieved from Redis.
-     * @param newListObj The provided persistable object, which is also an element of some parent persistable list field.
      * @return Proxy-wrapped, persistable and lazy loaded object
      * @throws Exception Reflection supports throwing exceptions if dynamic actions such as object creation fail
      */
-    public static Object generateProxy(Session session, ReflectedObjectAttributes fieldAttrs, String id, Object newListObj) throws Exception {
+    public static Object generateProxy(Session session, ReflectedObjectAttributes fieldAttrs, String id) throws Exception {
+        MethodHandle proxyConstructor = proxyConstructors.get(fieldAttrs.getObjClass());
+        if (proxyConstructor == null) {
+            // Two threads racing on the same class both generate a proxy class, and only the first one is kept
+            proxyConstructors.putIfAbsent(fieldAttrs.getObjClass(), createProxyConstructor(fieldAttrs));
+            proxyConstructor = proxyConstructors.get(fieldAttrs.getObjClass());
+        }
+
+        Object proxyAttrs;
+        try {
+            proxyAttrs = (Object) proxyConstructor.invokeExact();
+        } catch (Exception | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new InvocationTargetException(ex);
+        }
+        // Set id on list object
+        fieldAttrs.setIdFromString(proxyAttrs, id);
+
+        ((ProxyObject) proxyAttrs).setHandler(new LazyLoadHandler(session, fieldAttrs));
+
+        return proxyAttrs;
+    }
+
+    /**
+     * Check whether the given object is a lazy proxy whose persisted fields have not been loaded yet.
+     * Such an object only holds its id, so its other fields must not be written back to Redis.
+     * @param obj object to check
+     * @return true if obj is a proxy that has not been loaded
+     */
+    public static boolean isUnloadedProxy(Object obj) {
+        if (!(obj instanceof ProxyObject)) {
+            return false;
+        }
+        MethodHandler handler = ((ProxyObject) obj).getHandler();
+        return handler instanceof LazyLoadHandler && !((LazyLoadHandler) handler).isFullyLoaded();
+    }
+
+    /**
+     * Generate the proxy class of a persistable class and compile its default constructor
+     * @param fieldAttrs reflected object attributes of the persistable class
+     * @return compiled proxy class constructor
+     * @throws Exception If the proxy class cannot be generated
+     */
+    private static MethodHandle createProxyConstructor(ReflectedObjectAttributes fieldAttrs) throws Exception {
+        Set<String> handledMethods = findPersistedFieldAccessors(fieldAttrs);
+
         ProxyFactory factory = new ProxyFactory();
-        factory.setSuperclass(newListObj.getClass());
+        factory.setSuperclass(fieldAttrs.getObjClass());
+        // Precomputed filter: only methods that touch persisted fields are routed through the handler at all,
+        // everything else (including the id getter) runs directly on the proxy.
+        // If the bytecode could not be scanned, fall back to intercepting every method.
+        factory.setFilter(new MethodFilter() {
+            @Override
+            public boolean isHandled(Method method) {
+                return handledMethods == null || handledMethods.contains(methodKey(method));
+            }
+        });
         Class<?> proxyClass = factory.createClass();
 
         // In ReflectedObjectAttributes we verify that the target class has a default constructor
-        Object proxyAttrs = proxyClass.getDeclaredConstructor().newInstance();
-        // Set id on list object
-        // Field is either a String or an Integer, according to HW2 assumptions
+        return MethodHandles.lookup().findConstructor(proxyClass, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * Scan the bytecode of a persistable class for the methods that read or write a persisted field other than the id.
+     * Writers are included too, so that setting a field on an unloaded proxy is not later overwritten by the load.
+     * @param fieldAttrs reflected object attributes of the persistable class
+     * @return name and descriptor of each such method, or null if the bytecode is not available
+     */
+    private static Set<String> findPersistedFieldAccessors(ReflectedObjectAttributes fieldAttrs) {
+        Class<?> objClass = fieldAttrs.getObjClass();
+        Set<String> persistedFields = new HashSet<String>();
+        for (FieldAccessor field : fieldAttrs.getFields()) {
+            persistedFields.add(field.getName());
+        }
+        for (Map.Entry<FieldAccessor, ReflectedObjectAttributes> listPair : fieldAttrs.getListFieldAttrs().entrySet()) {
+            persistedFields.add(listPair.getKey().getName());
+        }
+
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(objClass.getClassLoader()));
+        Set<String> accessors = new HashSet<String>();
         try {
-            fieldAttrs.setId(proxyAttrs, id);
-        } catch (IllegalArgumentException ex) {
-            fieldAttrs.setId(proxyAttrs, Integer.valueOf(id));
+            CtClass ctClass = pool.get(objClass.getName());
+            for (CtMethod ctMethod : ctClass.getDeclaredMethods()) {
+                boolean[] isAccessor = {false};
+                // The editor only inspects field accesses; nothing is replaced, so the class is not modified
+                ctMethod.instrument(new ExprEditor() {
+                    @Override
+                    public void edit(FieldAccess fieldAccess) {
+                        if (!fieldAccess.isStatic()
+                                && fieldAccess.getClassName().equals(objClass.getName())
+                                && persistedFields.contains(fieldAccess.getFieldName())) {
+                            isAccessor[0] = true;
+                        }
+                    }
+                });
+                if (isAccessor[0]) {
+                    accessors.add(ctMethod.getName() + ctMethod.getSignature());
+                }
+            }
+            ctClass.detach();
+        } catch (NotFoundException | CannotCompileException ex) {
+            return null;
         }
 
-        ((ProxyObject) proxyAttrs).setHandler(new MethodHandler() {
-            boolean isFullyLoaded = false;
+        return accessors;
+    }
 
-            @Override
-            public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Exception {
-                if ((!isFullyLoaded) && thisMethod.getName().contains("get")) {
-                    // Only load all the non-id attributes from Session instance if a getter method (obeying Java Bean convention) is requested,
-                    // which may be attempting to access a persistable field.
-                    session.load(self, fieldAttrs);
-                    isFullyLoaded = true;
+    /**
+     * Build the name and JVM descriptor of a method, matching CtMethod name plus signature
+     * @param method method
+     * @return name and descriptor
+     */
+    private static String methodKey(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return "";
+        }
+        return method.getName() + MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString();
+    }
+
+    /*
+     * Handler of a single lazy proxy, which loads the persisted fields on the first intercepted call.
+     * The loaded flag is checked without locking once set, and the load itself runs at most once even when
+     * several threads reach the proxy at the same time.
+     * The load blocks on Redis while holding the lock, so it is a ReentrantLock rather than a monitor: a virtual
+     * thread waiting on it, or on Redis inside it, unmounts instead of pinning its carrier thread.
+     */
+    private static final class LazyLoadHandler implements MethodHandler {
+        private final Session session;
+        private final ReflectedObjectAttributes fieldAttrs;
+        private final ReentrantLock loadLock;
+        private volatile boolean isFullyLoaded;
+
+        LazyLoadHandler(Session session, ReflectedObjectAttributes fieldAttrs) {
+            this.session = session;
+            this.fieldAttrs = fieldAttrs;
+            this.loadLock = new ReentrantLock();
+            this.isFullyLoaded = false;
+        }
+
+        boolean isFullyLoaded() {
+            return isFullyLoaded;
+        }
+
+        @Override
+        public Object invoke(Object self, Method thisMethod, Method proceed, Object[] args) throws Throwable {
+            if (!isFullyLoaded) {
+                loadLock.lock();
+                try {
+                    if (!isFullyLoaded) {
+                        // Only load all the non-id attributes from Session instance once a method accessing
+                        // a persistable field is invoked.
+                        session.load(self, fieldAttrs);
+                        isFullyLoaded = true;
+                        PersistenceMetrics metrics = session.getMetrics();
+                        if (metrics != null) {
+                            metrics.recordMaterialization();
+                        }
+                    }
+                } finally {
+                    loadLock.unlock();
                 }
+            }
 
+            try {
                 return proceed.invoke(self, args);
+            } catch (InvocationTargetException ex) {
+                // Rethrow what the proxied method itself threw
+                throw ex.getCause();
             }
-        });
-
-        return proxyAttrs;
+        }
     }
 }
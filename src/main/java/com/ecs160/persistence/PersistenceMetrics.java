@@ -0,0 +1,109 @@
+package com.ecs160.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Micrometer meters of the persistence layer, shared by every session of a SessionFactory.
+ * Latency is recorded per Redis round trip rather than per object, since writes and reads are pipelined in batches:
+ * the timer of a round trip is tagged with the command it batched and with whether it was a pipeline or MULTI/EXEC.
+ * Objects persisted and loaded are counted per batch as well, so the cost on the hot path is a few counter
+ * increments per round trip. Rates (objects/s) are derived from the counters by the metrics backend.
+ */
+public class PersistenceMetrics {
+    private final MeterRegistry registry;
+    // Round-trip timer per command and mode, created on first use
+    private final ConcurrentMap<String, Timer> roundTrips;
+    private final Counter objectsPersisted;
+    private final Counter objectsSkipped;
+    private final Counter objectsLoaded;
+    private final Counter proxiesMaterialized;
+
+    /**
+     * Register the persistence meters with the given registry
+     * @param registry registry to register the meters with, e.g. the one Spring Boot Actuator exposes
+     */
+    public PersistenceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.roundTrips = new ConcurrentHashMap<String, Timer>();
+        this.objectsPersisted = objectCounter(registry, "persisted");
+        this.objectsSkipped = objectCounter(registry, "skipped");
+        this.objectsLoaded = objectCounter(registry, "loaded");
+        this.proxiesMaterialized = Counter.builder("persistence.proxies.materialized")
+                .description("Lazy proxies whose persisted fields were loaded on first access")
+                .register(registry);
+    }
+
+    /**
+     * Report the size, hit rate and evictions of the given record cache through the registry
+     * @param recordCache record cache to monitor
+     * @param name name that the cache meters are tagged with
+     */
+    public void monitor(RecordCache recordCache, String name) {
+        CaffeineCacheMetrics.monitor(registry, recordCache.getCache(), name);
+    }
+
+    /**
+     * Record one round trip to Redis
+     * @param command Redis command that the round trip batched
+     * @param isTransaction whether the batch was wrapped in MULTI/EXEC rather than pipelined
+     * @param durationNanos time from sending the batch until all replies were read
+     */
+    void recordRoundTrip(String command, boolean isTransaction, long durationNanos) {
+        String mode = isTransaction ? "transaction" : "pipeline";
+        Timer timer = roundTrips.get(command + " " + mode);
+        if (timer == null) {
+            timer = roundTrips.computeIfAbsent(command + " " + mode, key -> Timer.builder("redis.roundtrips")
+                    .tag("command", command)
+                    .tag("mode", mode)
+                    .description("Latency of batched round trips to Redis")
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Count objects written to Redis
+     * @param count number of objects
+     */
+    void recordPersisted(int count) {
+        objectsPersisted.increment(count);
+    }
+
+    /**
+     * Count unchanged objects that dirty tracking did not write
+     * @param count number of objects
+     */
+    void recordSkipped(int count) {
+        objectsSkipped.increment(count);
+    }
+
+    /**
+     * Count objects whose fields were set from Redis or the record cache
+     * @param count number of objects
+     */
+    void recordLoaded(int count) {
+        objectsLoaded.increment(count);
+    }
+
+    /**
+     * Count a lazy proxy that loaded its persisted fields
+     */
+    void recordMaterialization() {
+        proxiesMaterialized.increment();
+    }
+
+    private static Counter objectCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("persistence.objects")
+                .tag("outcome", outcome)
+                .description("Persistable objects written to or loaded from Redis")
+                .register(registry);
+    }
+}
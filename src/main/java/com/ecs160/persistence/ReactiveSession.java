@@ -0,0 +1,191 @@
+package com.ecs160.persistence;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Non-blocking counterpart of Session for persisting objects, for callers running on an event loop.
+ * Objects are written in the default layout (a hash per object, as HashRecordCodec writes them), so anything
+ * persisted here can be loaded by a regular Session.
+ *
+ * All writes share one multiplexed Lettuce connection: writes issued concurrently are pipelined on it rather than
+ * each waiting for a pooled connection. Each persist call keeps at most maxInFlight writes outstanding, so a slow
+ * Redis applies backpressure to its callers instead of letting pending writes pile up in memory.
+ *
+ * Like Session, objects can be written under a key prefix, and ids can be reserved from the same Redis counter that
+ * Session.reserveIds() uses, so both kinds of session can hand out ids under one prefix.
+ */
+public class ReactiveSession implements Closeable {
+    // Default maximum number of outstanding HSETs per persist call
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final RedisClient redisClient;
+    private final StatefulRedisConnection<String, String> connection;
+    private final RedisReactiveCommands<String, String> commands;
+    private volatile int maxInFlight;
+    // Optional second-level cache that written ids are invalidated in
+    private volatile RecordCache recordCache;
+    // Optional meters that persisted objects are counted in
+    private volatile PersistenceMetrics metrics;
+    // Prepended to the id of every object to form its Redis key
+    private volatile String keyPrefix;
+
+    /**
+     * Instantiate a new reactive session, connecting to Redis right away
+     * @param host Redis host
+     * @param port Redis port
+     */
+    public ReactiveSession(String host, int port) {
+        this.redisClient = RedisClient.create(RedisURI.create(host, port));
+        this.connection = redisClient.connect();
+        this.commands = connection.reactive();
+        this.maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        this.keyPrefix = "";
+    }
+
+    /**
+     * Set the maximum number of outstanding writes per persist call
+     * @param maxInFlight maximum number of outstanding writes, must be at least 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Maximum in-flight writes must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Set the record cache that written ids are invalidated in, usually the one shared with regular sessions
+     * @param recordCache record cache, or null
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * Set the meters that persisted objects are counted in
+     * @param metrics persistence meters, or null to record nothing
+     */
+    public void setMetrics(PersistenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the prefix that object ids are turned into Redis keys with
+     * @param keyPrefix key prefix, e.g. "moderated:post:", or "" to use ids as keys
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Reserve a range of consecutive ids that no other caller under the same key prefix gets, in this or any other
+     * process. Each call is one INCRBY, pipelined with the other commands on the shared connection.
+     * @param count number of ids to reserve, at least 1
+     * @return first id of the range
+     */
+    public Mono<Integer> reserveIds(int count) {
+        if (count < 1) {
+            return Mono.error(new IllegalArgumentException("Id count must be at least 1"));
+        }
+        String counterKey = keyPrefix + Session.ID_COUNTER_KEY;
+        // The counter holds the end of the ids reserved so far, exclusive
+        return commands.incrby(counterKey, count).flatMap(idEnd -> idEnd - 1 > Integer.MAX_VALUE
+                ? Mono.<Integer>error(new PersistenceException("Id counter " + counterKey + " is exhausted"))
+                : Mono.just((int) (idEnd - count)));
+    }
+
+    /**
+     * Persist the given object and every object reachable through its list fields
+     * @param obj object to persist
+     * @return completes once every write has been acknowledged by Redis
+     */
+    public Mono<Void> persist(Object obj) {
+        return persistAll(Collections.singletonList(obj));
+    }
+
+    /**
+     * Persist the given objects and every object reachable through their list fields.
+     * The records are built when the returned Mono is subscribed to, and written without blocking the caller.
+     * @param objs objects to persist
+     * @return completes once every write has been acknowledged by Redis
+     */
+    public Mono<Void> persistAll(Collection<?> objs) {
+        return Mono.fromCallable(() -> toRecords(objs))
+                .flatMapMany(records -> Flux.fromIterable(records.entrySet()))
+                .flatMap(record -> commands.hset(record.getKey(), record.getValue())
+                        .doOnSuccess(ignored -> written(record.getKey())), maxInFlight)
+                .then();
+    }
+
+    /**
+     * Close the connection and release the client's resources
+     */
+    @Override
+    public void close() {
+        connection.close();
+        redisClient.shutdown();
+    }
+
+    /**
+     * Build the records of the given objects and every object reachable through their list fields, breadth-first,
+     * in the same way Session.persistAll() does
+     * @param objs objects to persist
+     * @return records by Redis key, each object at most once
+     * @throws Exception If reflection fails or an id field is not set
+     */
+    private Map<String, Map<String, String>> toRecords(Collection<?> objs) throws Exception {
+        Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        String prefix = keyPrefix;
+        // Objects are compared by identity, since persistable classes need not implement equals()
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<Map.Entry<Object, ReflectedObjectAttributes>> level = new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>(objs.size());
+        for (Object obj : objs) {
+            level.add(new AbstractMap.SimpleImmutableEntry<Object, ReflectedObjectAttributes>(obj, AttributesRegistry.get(obj.getClass())));
+        }
+
+        while (!level.isEmpty()) {
+            List<Map.Entry<Object, ReflectedObjectAttributes>> nextLevel = new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>();
+            for (Map.Entry<Object, ReflectedObjectAttributes> attrPair : level) {
+                if (visited.add(attrPair.getKey())) {
+                    String objId = prefix + attrPair.getValue().getId(attrPair.getKey());
+                    records.put(objId, Session.toRecord(attrPair.getKey(), attrPair.getValue(), nextLevel));
+                }
+            }
+            level = nextLevel;
+        }
+
+        return records;
+    }
+
+    /**
+     * Bookkeeping once a write has been acknowledged
+     * @param objId id of the written object
+     */
+    private void written(String objId) {
+        // Write-through invalidation, as in BatchWriter
+        RecordCache cache = recordCache;
+        if (cache != null) {
+            cache.invalidate(objId);
+        }
+        PersistenceMetrics meters = metrics;
+        if (meters != null) {
+            meters.recordPersisted(1);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.ecs160.persistence;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Second-level cache of persisted records, shared by every Session it is given to (typically process-wide).
+ * Records are cached by object id in their decoded form (field names to String values), so the cache works the same
+ * regardless of the codec a session uses.
+ *
+ * Backed by Caffeine, whose W-TinyLFU eviction keeps hot threads cached under a skewed access pattern.
+ * Sessions invalidate the ids they write in persistAll(), so a cached record is never older than this process's
+ * own writes. Writes by other processes are only picked up once the entry expires.
+ *
+ * A load may read a record from Redis before another thread writes it, and only get to cache it after that write's
+ * invalidation. To keep such a stale record out, every invalidation bumps a generation of the id, and a load passes
+ * the generation it saw before reading to put(), which refuses the record if the generation has moved on since.
+ * Generations are kept in a fixed number of stripes rather than per id, so ids sharing a stripe only cost each other
+ * the odd refused put.
+ */
+public class RecordCache {
+    // Number of generation stripes, a power of two
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final Cache<String, Map<String, String>> records;
+    private final AtomicLongArray generations;
+
+    /**
+     * Instantiate a new record cache
+     * @param maxSize maximum number of records held
+     * @param expireAfterWrite time after which a cached record is reloaded from Redis
+     */
+    public RecordCache(long maxSize, Duration expireAfterWrite) {
+        this.records = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.generations = new AtomicLongArray(GENERATION_STRIPES);
+    }
+
+    /**
+     * Get the current generation of the given id, to be taken before its record is read from Redis
+     * @param objId object id
+     * @return generation to pass to put()
+     */
+    public long getGeneration(String objId) {
+        return generations.get(stripe(objId));
+    }
+
+    /**
+     * Get the cached record of the given id
+     * @param objId object id
+     * @return cached record, or null if it is not cached
+     */
+    public Map<String, String> get(String objId) {
+        return records.getIfPresent(objId);
+    }
+
+    /**
+     * Cache the record just read from Redis for the given id, unless the id was invalidated since it was read
+     * @param objId object id
+     * @param generation generation of the id taken before the record was read
+     * @param record persisted field names and values
+     */
+    public void put(String objId, long generation, Map<String, String> record) {
+        // Missing keys are not cached, since they are most likely about to be written
+        if (record.isEmpty()) {
+            return;
+        }
+        // Cached records are shared between sessions and threads, so they must not be modified
+        Map<String, String> cachedRecord = Collections.unmodifiableMap(new HashMap<String, String>(record));
+        // The generation is checked under the entry's lock, which invalidate() also takes after bumping it, so an
+        // invalidation either refuses this record or removes it
+        records.asMap().compute(objId, (id, current) -> getGeneration(id) == generation ? cachedRecord : current);
+    }
+
+    /**
+     * Drop the cached record of the given id after it has been written, and refuse records read before the write
+     * @param objId object id
+     */
+    public void invalidate(String objId) {
+        generations.incrementAndGet(stripe(objId));
+        records.invalidate(objId);
+    }
+
+    /**
+     * Drop every cached record, and refuse records of any id read before the call
+     */
+    public void invalidateAll() {
+        // Every stripe is bumped before the records are dropped, as invalidate() does for a single id
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        records.invalidateAll();
+    }
+
+    /**
+     * Getter for hit, miss and eviction statistics
+     * @return cache statistics
+     */
+    public CacheStats getStats() {
+        return records.stats();
+    }
+
+    /**
+     * Getter for approximate number of cached records
+     * @return number of cached records
+     */
+    public long size() {
+        return records.estimatedSize();
+    }
+
+    /**
+     * Get the generation stripe of the given id
+     * @param objId object id
+     * @return stripe index
+     */
+    private static int stripe(String objId) {
+        int hash = objId.hashCode();
+        // Spread the high bits, as HashMap does, since ids often differ in their last digits only
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * Getter for the underlying Caffeine cache, e.g. to bind it to a metrics registry
+     * @return Caffeine cache
+     */
+    Cache<String, Map<String, String>> getCache() {
+        return records;
+    }
+}
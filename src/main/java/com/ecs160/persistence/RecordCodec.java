@@ -0,0 +1,54 @@
+package com.ecs160.persistence;
+
+import redis.clients.jedis.PipeliningBase;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * Strategy for how a persisted object is laid out in Redis.
+ * Sessions hand the codec the object's persisted fields as field name and String value pairs (list fields hold
+ * comma-separated ids), and the codec decides which Redis commands store and retrieve them.
+ *
+ * The codec is chosen per session. Data must be read back with the same codec that wrote it.
+ */
+public interface RecordCodec {
+    /**
+     * Queue the commands that store one object on the given pipeline or transaction
+     * @param pipeline pipeline or transaction to queue on
+     * @param attrs reflected object attributes of the object
+     * @param objId id of the object, used as the Redis key
+     * @param record persisted field names and values
+     */
+    void queueWrite(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId, Map<String, String> record);
+
+    /**
+     * Whether queueWrite() may be given only the changed fields of an object, leaving the other stored fields intact.
+     * Used by dirty tracking to send partial updates.
+     * @return true if partial writes are supported
+     */
+    default boolean isPartialWriteSupported() {
+        return false;
+    }
+
+    /**
+     * Queue the commands that retrieve one object on the given pipeline
+     * @param pipeline pipeline to queue on
+     * @param attrs reflected object attributes of the object
+     * @param objId id of the object, used as the Redis key
+     * @return supplier of the decoded field names and values, valid once the pipeline has been synced
+     */
+    Supplier<Map<String, String>> queueRead(PipeliningBase pipeline, ReflectedObjectAttributes attrs, String objId);
+
+    /**
+     * Name of the Redis command that queueWrite() sends, used to tag round-trip latency metrics
+     * @return Redis command name
+     */
+    String getWriteCommand();
+
+    /**
+     * Name of the Redis command that queueRead() sends, used to tag round-trip latency metrics
+     * @return Redis command name
+     */
+    String getReadCommand();
+}
@@ -1,12 +1,17 @@
 package com.ecs160.persistence;
 
-import redis.clients.jedis.Jedis;
-
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /*
  * A separate class is used to represent all the fields associated with persistence annotations.
@@ -18,14 +23,19 @@ import java.util.Map;
 public class ReflectedObjectAttributes {
     // We must make "id" non-final since we iterate through a loop in order to find the id field.
     // In the code (see below), we enforce that only one @PersistableId can be specified.
-    private Field id;
+    private FieldAccessor id;
     private final Class<?> thisClass;
-    private final List<Field> fields;
-    private boolean isLazyLoad;
+    // Compiled default constructor, erased to return Object
+    private final MethodHandle constructor;
+    private final List<FieldAccessor> fields;
     // Recursively store reflected object attributes of persisted list fields
-    private final Map<Field, ReflectedObjectAttributes> listFieldAttrs;
+    private final Map<FieldAccessor, ReflectedObjectAttributes> listFieldAttrs;
+    // List fields annotated with @LazyLoad.
+    // Lazy loading belongs to the list field rather than the item class, since the same item attributes are shared
+    // by every list field (and every Session) that holds that class.
+    private final Set<FieldAccessor> lazyListFields;
     // HashMap of previously constructed list ReflectedObjectAttributes to prevent infinite recursion
-    private final Map<String, ReflectedObjectAttributes> prevAttrs;
+    private final Map<Class<?>, ReflectedObjectAttributes> prevAttrs;
 
     // The constructor will set up the field structure with reflection so that we don't have to repeat this work
     // when running persistAll().
@@ -39,14 +49,17 @@ public class ReflectedObjectAttributes {
      * @param newPrevAttrs To prevent infinite recursion with list fields that may specify recursive reference to the same class, we must keep track of parent object attributes.
      * @throws Exception Reflection code may generate exceptions
      */
-    public ReflectedObjectAttributes(Class<?> objClass, Map<String, ReflectedObjectAttributes> newPrevAttrs) throws Exception {
+    ReflectedObjectAttributes(Class<?> objClass, Map<Class<?>, ReflectedObjectAttributes> newPrevAttrs) throws Exception {
         this.prevAttrs = newPrevAttrs;
         this.thisClass = objClass;
-        this.isLazyLoad = false;
         // Initialize containers for fields and list-type fields
-        fields = new LinkedList<Field>();
-        // We use a HashMap to store both list Field object and the associated reflected object attributes.
-        listFieldAttrs = new HashMap<Field, ReflectedObjectAttributes>();
+        fields = new ArrayList<FieldAccessor>();
+        // We use a LinkedHashMap to store both list field accessor and the associated reflected object attributes.
+        listFieldAttrs = new LinkedHashMap<FieldAccessor, ReflectedObjectAttributes>();
+        lazyListFields = new HashSet<FieldAccessor>();
+        // Register this class before scanning list fields, so that a list field referring back to this class
+        // (e.g. Post has a list field "replies" with elements type Post) reuses these attributes.
+        prevAttrs.put(objClass, this);
 
         // Throw exception if object's instantiated class does not contain an @Persistable annotation
         if (!objClass.isAnnotationPresent(Persistable.class)) {
@@ -59,7 +72,9 @@ public class ReflectedObjectAttributes {
         //
         // Although an Object is provided to the load() function in Session, any child replies will need new Objects to be instantiated.
         try {
-            objClass.getDeclaredConstructor();
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(objClass, MethodHandles.lookup());
+            constructor = lookup.findConstructor(objClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
         } catch (NoSuchMethodException ex) {
             throw new PersistenceException(String.format("Class \"%s\" must contain a default constructor so that dynamic instantiation for object loading is possible", objClass.getName()));
         }
@@ -79,11 +94,11 @@ public class ReflectedObjectAttributes {
                     throw new IdException("Cannot specify multiple @PersistableId annotations");
                 }
 
-                id = field;
+                id = new FieldAccessor(field);
             }
 
             if (field.isAnnotationPresent(PersistableField.class)) {
-                fields.add(field);
+                fields.add(new FieldAccessor(field));
             }
 
             if (field.isAnnotationPresent(PersistableListField.class)) {
@@ -96,27 +111,24 @@ public class ReflectedObjectAttributes {
                 // Attempt getting class from provided fully-qualified class name
                 Class<?> listFieldClass = Class.forName(listFieldAnnot.className());
 
-                // Check if base class of list item reflected attributes have already been created previously.
+                // Check if base class of list item reflected attributes have already been created previously,
+                // either while building this class or globally in the registry.
                 // This check will prevent infinite recursion (e.g. Post has a list field "replies" with elements type Post).
-                ReflectedObjectAttributes listItemAttrs;
-                if (prevAttrs.containsKey(listFieldAnnot.className())) {
-                    listItemAttrs = prevAttrs.get(listFieldAnnot.className());
-                } else {
-                    if (listFieldClass.getName().equals(thisClass.getName())) {
-                        prevAttrs.put(listFieldAnnot.className(), this);
-                        listItemAttrs = new ReflectedObjectAttributes(listFieldClass, prevAttrs);
-                    } else {
-                        listItemAttrs = new ReflectedObjectAttributes(listFieldClass, prevAttrs);
-                        prevAttrs.put(listFieldAnnot.className(), listItemAttrs);
-                    }
+                ReflectedObjectAttributes listItemAttrs = prevAttrs.get(listFieldClass);
+                if (listItemAttrs == null) {
+                    listItemAttrs = AttributesRegistry.peek(listFieldClass);
+                }
+                if (listItemAttrs == null) {
+                    listItemAttrs = new ReflectedObjectAttributes(listFieldClass, prevAttrs);
                 }
 
-                // Convert reflected object attributes into lazily-loaded proxy of @LazyLoad is present on list
+                // Recursively insert list field class attributes
+                FieldAccessor listField = new FieldAccessor(field);
+                listFieldAttrs.put(listField, listItemAttrs);
+                // List items are converted into lazily-loaded proxies if @LazyLoad is present on list
                 if (field.isAnnotationPresent(LazyLoad.class)) {
-                    listItemAttrs.setIsLazyLoad(true);
+                    lazyListFields.add(listField);
                 }
-                // Recursively insert list field class attributes
-                listFieldAttrs.put(field, listItemAttrs);
             }
         }
 
@@ -127,27 +139,44 @@ public class ReflectedObjectAttributes {
 
     /**
      * Instantiate a new reflected object attributes class
-     * Overload of method that will instantiate a new previous/parent attributes collection
+     * Overload of method that will instantiate a new previous/parent attributes collection.
+     * Prefer AttributesRegistry.get(), which only reflects each class once per process.
      * @param objClass Class for the persistable object which should be represented
      */
     public ReflectedObjectAttributes(Class<?> objClass) throws Exception {
-        this(objClass, new HashMap<String, ReflectedObjectAttributes>());
+        this(objClass, new HashMap<Class<?>, ReflectedObjectAttributes>());
+    }
+
+    /**
+     * Get the class that this reflected attributes object represents
+     * @return represented class
+     */
+    public Class<?> getObjClass() {
+        return thisClass;
     }
 
     /**
-     * Set that the class being represented is being lazy loaded (objects belongs to a parent lazy-loaded list)
-     * @param val true or false
+     * Get the accessor of the id field
+     * @return id field accessor
      */
-    public void setIsLazyLoad(boolean val) {
-        isLazyLoad = val;
+    FieldAccessor getIdAccessor() {
+        return id;
     }
 
     /**
-     * Get the lazy loading state for the represented objects
-     * @return whether represented objects are being lazy loaded
+     * Get the accessors of the non-list persistable fields, in declaration order
+     * @return field accessors
      */
-    public boolean getIsLazyLoad() {
-        return isLazyLoad;
+    List<FieldAccessor> getFields() {
+        return fields;
+    }
+
+    /**
+     * Get the accessors of the persistable list fields and the reflected object attributes of their items, in declaration order
+     * @return list field accessors and item attributes
+     */
+    Map<FieldAccessor, ReflectedObjectAttributes> getListFieldAttrs() {
+        return listFieldAttrs;
     }
 
     // Although in the HW2 specification we know that the Post class has "id" with type Integer,
@@ -165,23 +194,15 @@ public class ReflectedObjectAttributes {
      * @throws IdException Throw exception if id is not set on object
      */
     public String getId(Object obj) throws IllegalAccessException, IdException {
-        String retrievedId;
-        // We must first temporarily set id to be accessible
-        id.setAccessible(true);
-        try {
-            // Due to runtime polymorphism, the following toString() call will return either the same String
-            // if id is a string, or the Integer conversion to a String if id is an Integer.
-            retrievedId = id.get(obj).toString();
-
-            return retrievedId;
-        } catch (NullPointerException ex) {
-            // NullPointerException thrown if ID is not instantiated on object.
-            // In that case, throw IdException.
+        Object retrievedId = id.get(obj);
+        if (retrievedId == null) {
+            // In case the id is not instantiated on object, throw IdException.
             throw new IdException("id field not instantiated in object");
-        } finally {
-            // Restore access modifier
-            id.setAccessible(false);
         }
+
+        // Due to runtime polymorphism, the following toString() call will return either the same String
+        // if id is a string, or the Integer conversion to a String if id is an Integer.
+        return retrievedId.toString();
     }
 
     /**
@@ -191,11 +212,19 @@ public class ReflectedObjectAttributes {
      * @throws IllegalAccessException Reflection exception if id field cannot be accessed
      */
     public void setId(Object obj, Object newId) throws IllegalAccessException {
-        // We must first temporarily set id to be accessible
-        id.setAccessible(true);
         id.set(obj, newId);
-        // Restore access modifiers
-        id.setAccessible(false);
+    }
+
+    /**
+     * Sets id field on given object from its String form, as stored in Redis
+     * @param obj object to set id field on
+     * @param newId new id value as a String
+     * @throws IllegalAccessException Reflection exception if id field cannot be accessed
+     */
+    public void setIdFromString(Object obj, String newId) throws IllegalAccessException {
+        // Field is either a String or an Integer, according to HW2 assumptions.
+        // The accessor converts the String according to the declared type of the id field.
+        id.setFromString(obj, newId);
     }
 
     // Similar to the getId() function, Strings are returned because "String" is the most general type of data
@@ -209,14 +238,10 @@ public class ReflectedObjectAttributes {
     public Map<String, String> getFieldPairs(Object obj) throws IllegalAccessException {
         Map<String, String> retrievedFields = new HashMap<String, String>();
 
-        for (Field field : fields) {
-            // We must first temporarily set field to be accessible
-            field.setAccessible(true);
+        for (FieldAccessor field : fields) {
             // Due to runtime polymorphism, the following toString() call will return either the same String
             // if field is a string, or the Integer conversion to a String if field is an Integer.
             retrievedFields.put(field.getName(), field.get(obj).toString());
-            // Restore access modifier
-            field.setAccessible(false);
         }
 
         return retrievedFields;
@@ -233,20 +258,16 @@ public class ReflectedObjectAttributes {
     public List<ListFieldPair> getListFieldPairs(Object obj) throws IllegalAccessException {
         List<ListFieldPair> retrievedListFields = new LinkedList<ListFieldPair>();
 
-        for (Map.Entry<Field, ReflectedObjectAttributes> fieldAttrPair : listFieldAttrs.entrySet()) {
-            Field field = fieldAttrPair.getKey();
-            // We must temporarily set list field to be accessible in order to access it
-            field.setAccessible(true);
+        for (Map.Entry<FieldAccessor, ReflectedObjectAttributes> fieldAttrPair : listFieldAttrs.entrySet()) {
+            FieldAccessor field = fieldAttrPair.getKey();
             // NOTE: I suppress the warning for unchecked cast to List<Object> because:
             // 1. In the ReflectedObjectAttributes() constructor I verify that the object class either derives or is a List<>
             // 2. In the HW2 assumptions, it is given that the type of the list object is guaranteed to be non-primitive.
             // Thus, using parent class "Object" as the List type will never result in exception when casting the returned field object.
             @SuppressWarnings("unchecked")
             List<Object> listObjs = (List<Object>) field.get(obj);
-            // Restore access modifier
-            field.setAccessible(false);
 
-            ListFieldPair listFieldPair = new ListFieldPair(field, fieldAttrPair.getValue(), listObjs);
+            ListFieldPair listFieldPair = new ListFieldPair(field.getField(), fieldAttrPair.getValue(), listObjs);
             retrievedListFields.add(listFieldPair);
         }
 
@@ -272,87 +293,105 @@ public class ReflectedObjectAttributes {
      * @throws NoSuchMethodException If reflection cannot find the specified method
      */
     public Object generateInstance() throws InvocationTargetException, InstantiationException, IllegalAccessException, NoSuchMethodException {
-        // When generating the reflected object attributes, we enforced that the default constructor exists.
-        // Thus, we cannot actually get a NoSuchMethodException.
-        Constructor<?> constructor = thisClass.getDeclaredConstructor();
-        constructor.setAccessible(true);
-        Object newInstance = constructor.newInstance();
-        constructor.setAccessible(false);
-
-        return newInstance;
+        // When generating the reflected object attributes, we enforced that the default constructor exists
+        // and compiled it into a method handle.
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            // Mirror Constructor.newInstance() by wrapping anything the constructor itself throws
+            throw new InvocationTargetException(ex);
+        }
     }
 
     /**
      * Set the fields in the provided object using the reflected persistence object attributes in
-     * this class and a particular Jedis session to load from.
-     * @param session Persistence session that should be used to load the data into the specified object
+     * this class and the hash already retrieved from Redis for that object.
+     * Eagerly loaded list items are not fetched here. Instead, they are queued on nextLevel so that the caller can
+     * fetch a whole level of the object graph in one pipelined batch.
+     * @param session Persistence session that lazily loaded list items should load through
      * @param object Object instance represented by this reflected attributes class to load persistence data into
-     * @param jedisSession Jedis session to load stored persistence data from
+     * @param objPairs field names and values retrieved from Redis for the object
+     * @param nextLevel collection that eagerly loaded list items are queued on
+     * @throws PersistenceException If there is no record for the object, or the record is missing a persisted field
      * @throws Exception Reflection may generate exception
      */
-    public void setFields(Session session, Object object, Jedis jedisSession) throws Exception {
-        // If objId is not set, then PersistenceException will be thrown (refer to ReflectedObjectAttributes class).
-        String objId = getId(object);
-        Map<String, String> objPairs = jedisSession.hgetAll(objId);
+    public void setFields(Session session, Object object, Map<String, String> objPairs, List<PendingLoad> nextLevel) throws Exception {
+        // Both codecs read a missing key as an empty record
+        if (objPairs.isEmpty()) {
+            throw new PersistenceException(String.format("No record found for id \"%s\"", getId(object)));
+        }
 
         // Set non-list fields
-        for (Field field : fields) {
-            String strValue = objPairs.get(field.getName());
-            Object origValue = strValue;
-
-            // Given HW2 assumptions, we know that the only types we have to support for persistence
-            // are String and Integer types.
-            if (field.getType() == Integer.class) {
-                origValue = Integer.valueOf(strValue);
+        for (FieldAccessor field : fields) {
+            // A record written before the field was renamed only has the legacy field
+            String legacyName = field.getLegacyName();
+            if (legacyName != null && !objPairs.containsKey(field.getName()) && objPairs.containsKey(legacyName)) {
+                field.setFromLegacyString(object, objPairs.get(legacyName));
+                continue;
             }
-
-            // We must first temporarily set field to be accessible
-            field.setAccessible(true);
-            field.set(object, origValue);
-            // Restore access modifier
-            field.setAccessible(false);
+            // Given HW2 assumptions, we know that the only types we have to support for persistence
+            // are String and Integer types. The accessor converts the String according to the field type.
+            field.setFromString(object, getFieldValue(object, objPairs, field));
         }
 
         // Set list fields
-        for (Map.Entry<Field, ReflectedObjectAttributes> fieldPair : listFieldAttrs.entrySet()) {
-            Field field = fieldPair.getKey();
+        for (Map.Entry<FieldAccessor, ReflectedObjectAttributes> fieldPair : listFieldAttrs.entrySet()) {
+            FieldAccessor field = fieldPair.getKey();
             ReflectedObjectAttributes fieldAttrs = fieldPair.getValue();
 
-            // Given HW2 assumptions, it is guaranteed that the list container is always a List<> type.
-            // Thus, we can initialize the List as a LinkedList<Object>.
-            List<Object> objs = new LinkedList<Object>();
             // Retrieve comma-separated array of ids
-            if (!objPairs.get(field.getName()).isEmpty()) {
-                String[] listString = objPairs.get(field.getName()).split(",");
-                // Recursively load all list ids into new objects
+            String idList = getFieldValue(object, objPairs, field);
+            String[] listString = idList.isEmpty() ? new String[0] : idList.split(",");
+            // Given HW2 assumptions, it is guaranteed that the list container is always a List<> type.
+            // Thus, we can initialize the List as an ArrayList<Object> presized to the number of ids.
+            List<Object> objs = new ArrayList<Object>(listString.length);
+            if (listString.length > 0) {
+                IdentityMap identityMap = session.getIdentityMap();
                 for (String id : listString) {
-                    Object newListObj = fieldAttrs.generateInstance();
-
-                    // Set id on list object
-                    try {
-                        fieldAttrs.setId(newListObj, id);
-                    } catch (IllegalArgumentException ex) {
-                        fieldAttrs.setId(newListObj, Integer.valueOf(id));
+                    // Reuse the instance already materialized by this session for the same id, if any
+                    Object newListObj = identityMap.get(fieldAttrs.getObjClass(), id);
+                    if (newListObj != null) {
+                        objs.add(newListObj);
+                        continue;
                     }
 
                     // Extra credit feature:
-                    // We defer the session.load() call to the proxy intercept method if the reflected object attributes
-                    // specifies that the represented object should be lazy loaded.
-                    if (fieldAttrs.getIsLazyLoad()) {
-                        newListObj = PersistableProxy.generateProxy(session, fieldAttrs, id, newListObj);
+                    // We defer the session.load() call to the proxy intercept method if the list field
+                    // is annotated with @LazyLoad.
+                    if (lazyListFields.contains(field)) {
+                        newListObj = PersistableProxy.generateProxy(session, fieldAttrs, id);
                     } else {
-                        // Bi-recursion: we call load() from the provided Session object to recursively load the new list object.
-                        newListObj = session.load(newListObj, fieldAttrs);
+                        newListObj = fieldAttrs.generateInstance();
+                        fieldAttrs.setIdFromString(newListObj, id);
+                        // The list object only has its id set for now; the session fills in the rest of its fields
+                        // together with every other object on the same level.
+                        nextLevel.add(new PendingLoad(newListObj, fieldAttrs));
                     }
+                    identityMap.put(fieldAttrs.getObjClass(), id, newListObj);
                     objs.add(newListObj);
                 }
             }
 
-            // We must first temporarily set field to be accessible
-            field.setAccessible(true);
             field.set(object, objs);
-            // Restore access modifier
-            field.setAccessible(false);
         }
     }
+
+    /**
+     * Get the value of a persisted field from the record retrieved for an object
+     * @param object object the record was retrieved for
+     * @param objPairs field names and values retrieved from Redis for the object
+     * @param field persisted field to get the value of
+     * @return value of the field as a String
+     * @throws PersistenceException If the record does not have the field
+     * @throws IllegalAccessException If reflection cannot access the id of the object
+     */
+    private String getFieldValue(Object object, Map<String, String> objPairs, FieldAccessor field) throws PersistenceException, IllegalAccessException {
+        String value = objPairs.get(field.getName());
+        if (value == null) {
+            throw new PersistenceException(String.format("Record of id \"%s\" has no field \"%s\"", getId(object), field.getName()));
+        }
+        return value;
+    }
 }
@@ -3,25 +3,214 @@ package com.ecs160.persistence;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
 
 /*
  * Persistence session that is used to either save persistable data from an arbitrary object to Redis,
  * or to load persistable data from Redis store into an arbitrary object.
  * Assumption - only support int/long/and string values
+ *
+ * A session constructed with a single Jedis connection must only be used from one thread at a time.
+ * A session opened from a SessionFactory borrows pooled connections per operation and may be shared across threads.
+ *
+ * A session may write and read its objects under a key prefix, to keep them apart from objects of the same class
+ * that other sessions write, and can hand out ids that are unique within that prefix across processes.
  */
 public class Session {
+    // Default number of HSET commands sent to Redis per round trip in persistAll()
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    // Number of ids reserved from Redis at once by reserveIds()
+    public static final int ID_BLOCK_SIZE = 1024;
+    // Key, under the key prefix, of the counter that reserveIds() reserves from
+    static final String ID_COUNTER_KEY = "next-id";
+
+    // Exactly one of jedisSession and jedisPool is set
     private final Jedis jedisSession;
+    private final JedisPool jedisPool;
+    // Executor that flush partitions run on, and number of partitions; only used with a pool
+    private final ExecutorService flushExecutor;
+    private final int flushPartitions;
     private final Map<Object, ReflectedObjectAttributes> objAttrsList;
+    private volatile int batchSize;
+    private volatile boolean isAtomic;
+    private volatile RecordCodec codec;
+    // Last persisted or loaded state of each object by id, used in dirty tracking mode
+    private final Map<String, Map<String, String>> snapshots;
+    private volatile boolean isDirtyTracking;
+    // First-level cache of the objects materialized by this session
+    private final IdentityMap identityMap;
+    // Optional second-level cache of records, usually shared across sessions
+    private volatile RecordCache recordCache;
+    // Optional meters of round trips and objects persisted or loaded, usually shared across sessions
+    private volatile PersistenceMetrics metrics;
+    // Prepended to the id of every object to form its Redis key
+    private volatile String keyPrefix;
+    // Block of ids reserved from Redis and not handed out yet, [nextReservedId, reservedIdEnd)
+    private final ReentrantLock idLock;
+    private long nextReservedId;
+    private long reservedIdEnd;
 
     /**
      * Instantiate new persistence session with given Jedis session
      * @param jedisSession Jedis session to use for persistence
      */
     public Session(Jedis jedisSession) {
+        this(jedisSession, null, null, 1);
+    }
+
+    /**
+     * Instantiate new thread-safe persistence session that borrows connections from the given pool.
+     * persistAll() splits the added objects into flushPartitions partitions, each flushed on its own pooled connection.
+     * @param jedisPool pool to borrow Jedis connections from
+     * @param flushExecutor executor that flush partitions run on
+     * @param flushPartitions number of partitions, at most the pool size
+     */
+    Session(JedisPool jedisPool, ExecutorService flushExecutor, int flushPartitions) {
+        this(null, jedisPool, flushExecutor, flushPartitions);
+    }
+
+    private Session(Jedis jedisSession, JedisPool jedisPool, ExecutorService flushExecutor, int flushPartitions) {
         this.jedisSession = jedisSession;
-        objAttrsList = new HashMap<Object, ReflectedObjectAttributes>();
+        this.jedisPool = jedisPool;
+        this.flushExecutor = flushExecutor;
+        this.flushPartitions = flushPartitions;
+        // ConcurrentHashMap, so that objects may be added from many threads when the session is pooled
+        objAttrsList = new ConcurrentHashMap<Object, ReflectedObjectAttributes>();
+        batchSize = DEFAULT_BATCH_SIZE;
+        isAtomic = false;
+        codec = new HashRecordCodec();
+        snapshots = new ConcurrentHashMap<String, Map<String, String>>();
+        isDirtyTracking = false;
+        identityMap = new IdentityMap();
+        keyPrefix = "";
+        idLock = new ReentrantLock();
+    }
+
+    /**
+     * Set the maximum number of objects written to Redis per round trip in persistAll()
+     * @param batchSize maximum number of objects per batch, must be at least 1
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set whether each batch in persistAll() is wrapped in MULTI/EXEC instead of a plain pipeline.
+     * Atomicity is per batch, so the batch size should cover every object if the whole call must be atomic.
+     * @param isAtomic true to use MULTI/EXEC, false to use a pipeline
+     */
+    public void setAtomic(boolean isAtomic) {
+        this.isAtomic = isAtomic;
+    }
+
+    /**
+     * Set how objects are laid out in Redis by this session.
+     * Defaults to a hash per object (HashRecordCodec). Data must be read back with the codec that wrote it.
+     * @param codec codec to use for both persistAll() and load()
+     */
+    public void setCodec(RecordCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Set whether persistAll() only writes objects and fields that changed since they were last persisted or loaded
+     * by this session (unit-of-work mode).
+     * Objects never persisted or loaded by this session are always written in full.
+     * @param isDirtyTracking true to enable dirty tracking
+     */
+    public void setDirtyTracking(boolean isDirtyTracking) {
+        this.isDirtyTracking = isDirtyTracking;
+        if (!isDirtyTracking) {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * Set the second-level record cache that load() reads through and persistAll() invalidates.
+     * The same cache is usually given to every session of the process.
+     * @param recordCache record cache, or null to read straight from Redis
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * Set the meters that this session records Redis round trips and persisted or loaded objects in
+     * @param metrics persistence meters, or null to record nothing
+     */
+    public void setMetrics(PersistenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the prefix that object ids are turned into Redis keys with, for both persisting and loading.
+     * List fields still hold plain ids, so an object graph is written and read back under one prefix.
+     * @param keyPrefix key prefix, e.g. "moderated:post:", or "" to use ids as keys
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Reserve a range of consecutive ids that no other caller of reserveIds() under the same key prefix gets,
+     * in this or any other process. Ids are taken from a Redis counter in blocks of ID_BLOCK_SIZE, so most calls
+     * do not go to Redis; ids of a block still unused when the process exits are skipped.
+     * @param count number of ids to reserve, at least 1
+     * @return first id of the range
+     * @throws PersistenceException If the ids would exceed the range of an int
+     */
+    public int reserveIds(int count) throws PersistenceException {
+        if (count < 1) {
+            throw new IllegalArgumentException("Id count must be at least 1");
+        }
+        // A lock rather than a monitor, since a block is reserved while holding it
+        idLock.lock();
+        try {
+            if (reservedIdEnd - nextReservedId < count) {
+                long blockSize = Math.max(count, ID_BLOCK_SIZE);
+                Jedis jedis = acquire();
+                try {
+                    // The counter holds the end of the ids reserved so far, exclusive
+                    reservedIdEnd = jedis.incrBy(keyPrefix + ID_COUNTER_KEY, blockSize);
+                } finally {
+                    release(jedis);
+                }
+                nextReservedId = reservedIdEnd - blockSize;
+            }
+            if (nextReservedId + count - 1 > Integer.MAX_VALUE) {
+                throw new PersistenceException("Id counter " + keyPrefix + ID_COUNTER_KEY + " is exhausted");
+            }
+            int firstId = (int) nextReservedId;
+            nextReservedId += count;
+            return firstId;
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the meters of this session, e.g. for lazy proxies to count their loads
+     * @return persistence meters, or null
+     */
+    PersistenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the identity map of this session, e.g. to bound its size or read its hit rate
+     * @return identity map
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMap;
     }
 
     /**
@@ -30,31 +219,255 @@ public class Session {
      * @throws Exception ReflectedObjectAttribute instantiation may throw exception
      */
     public void add(Object obj) throws Exception {
-        objAttrsList.put(obj, new ReflectedObjectAttributes(obj.getClass()));
+        // Reflected object attributes are shared process-wide, so only the first object of each class is reflected
+        objAttrsList.put(obj, AttributesRegistry.get(obj.getClass()));
+    }
+
+    /**
+     * Trigger persistence saving to Redis for all loaded objects.
+     * Rather than one round trip per object, HSETs are sent in batches of the configured batch size.
+     * @return number of objects written and batches flushed
+     * @throws IllegalAccessException If reflection cannot access field
+     * @throws PersistenceException If there is an exception when attempting to persist object
+     */
+    public PersistResult persistAll() throws IllegalAccessException, PersistenceException {
+        return persistEntries(new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>(objAttrsList.entrySet()));
+    }
+
+    /**
+     * Persist the given objects right away, without adding them to this session.
+     * Useful for streaming ingestion, where objects should not stay referenced by the session once written.
+     * @param objs objects to persist
+     * @return number of objects written and batches flushed
+     * @throws Exception ReflectedObjectAttribute lookup or persistence may throw exception
+     */
+    public PersistResult persist(Collection<?> objs) throws Exception {
+        List<Map.Entry<Object, ReflectedObjectAttributes>> entries = new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>(objs.size());
+        for (Object obj : objs) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<Object, ReflectedObjectAttributes>(obj, AttributesRegistry.get(obj.getClass())));
+        }
+        return persistEntries(entries);
+    }
+
+    /**
+     * Persist the given objects, split into one partition per pooled connection if this session is pooled
+     * @param entries objects to persist and their reflected object attributes
+     * @return number of objects written and batches flushed
+     * @throws IllegalAccessException If reflection cannot access field
+     * @throws PersistenceException If there is an exception when attempting to persist object
+     */
+    private PersistResult persistEntries(List<Map.Entry<Object, ReflectedObjectAttributes>> entries) throws IllegalAccessException, PersistenceException {
+        if (jedisPool == null || flushPartitions <= 1 || entries.size() <= batchSize) {
+            return persistPartition(entries);
+        }
+
+        // The whole graph is walked before it is split, and split by key rather than by root: replies shared between
+        // roots are then written once, and every write and snapshot of a key stays on one connection
+        List<List<ObjectRecord>> partitions = new ArrayList<List<ObjectRecord>>(flushPartitions);
+        for (int i = 0; i < flushPartitions; i++) {
+            partitions.add(new ArrayList<ObjectRecord>(entries.size() / flushPartitions + 1));
+        }
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<Map.Entry<Object, ReflectedObjectAttributes>> level = entries;
+        while (!level.isEmpty()) {
+            List<Map.Entry<Object, ReflectedObjectAttributes>> nextLevel = new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>();
+            for (ObjectRecord record : toRecords(level, visited, nextLevel)) {
+                partitions.get(Math.floorMod(record.objId.hashCode(), flushPartitions)).add(record);
+            }
+            level = nextLevel;
+        }
+
+        List<Future<PersistResult>> futures = new ArrayList<Future<PersistResult>>(flushPartitions);
+        for (List<ObjectRecord> partition : partitions) {
+            futures.add(flushExecutor.submit(() -> persistRecords(partition)));
+        }
+
+        PersistResult result = new PersistResult(0, 0, 0, 0, 0);
+        for (Future<PersistResult> future : futures) {
+            result = result.plus(awaitPartition(future));
+        }
+
+        return result;
+    }
+
+    /**
+     * Persist the given objects and everything reachable from them on a single connection
+     * @param entries objects to persist and their reflected object attributes
+     * @return number of objects written and batches flushed
+     * @throws IllegalAccessException If reflection cannot access field
+     * @throws PersistenceException If there is an exception when attempting to persist object
+     */
+    private PersistResult persistPartition(List<Map.Entry<Object, ReflectedObjectAttributes>> entries) throws IllegalAccessException, PersistenceException {
+        Jedis jedis = acquire();
+        try {
+            BatchWriter writer = new BatchWriter(jedis, codec, batchSize, isAtomic, isDirtyTracking ? snapshots : null, recordCache, metrics);
+            persistLevels(entries, writer);
+
+            return writer.close();
+        } finally {
+            release(jedis);
+        }
     }
 
     /**
-     * Trigger persistence saving to Redis for all loaded objects
+     * Write already built records on a single connection
+     * @param records records of a flush partition
+     * @return number of objects written and batches flushed
+     * @throws PersistenceException If there is an exception when attempting to persist object
+     */
+    private PersistResult persistRecords(List<ObjectRecord> records) throws PersistenceException {
+        Jedis jedis = acquire();
+        try {
+            BatchWriter writer = new BatchWriter(jedis, codec, batchSize, isAtomic, isDirtyTracking ? snapshots : null, recordCache, metrics);
+            for (ObjectRecord record : records) {
+                queueRecord(record, writer);
+            }
+
+            return writer.close();
+        } finally {
+            release(jedis);
+        }
+    }
+
+    /**
+     * Wait for a flush partition and rethrow its exception, if any, as the exception type persistAll() declares
+     * @param future pending partition result
+     * @return partition result
+     * @throws IllegalAccessException If reflection cannot access field
+     * @throws PersistenceException If there is an exception when attempting to persist object
+     */
+    private PersistResult awaitPartition(Future<PersistResult> future) throws IllegalAccessException, PersistenceException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for persistAll() to flush");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IllegalAccessException) {
+                throw (IllegalAccessException) cause;
+            }
+            if (cause instanceof PersistenceException) {
+                throw (PersistenceException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new PersistenceException("persistAll() partition failed: " + cause);
+        }
+    }
+
+    /**
+     * Get a connection for one operation: either the single Jedis session, or a connection borrowed from the pool
+     * @return Jedis connection
+     */
+    private Jedis acquire() {
+        return jedisPool != null ? jedisPool.getResource() : jedisSession;
+    }
+
+    /**
+     * Return a connection obtained from acquire()
+     * @param jedis Jedis connection
+     */
+    private void release(Jedis jedis) {
+        // Closing a pooled connection returns it to the pool
+        if (jedisPool != null) {
+            jedis.close();
+        }
+    }
+
+    /**
+     * Persist the given objects and every object reachable through their list fields, one level of the object graph
+     * at a time. The graph is walked breadth-first with an explicit queue rather than call recursion, so reply trees
+     * of any depth or width are persisted without deep call stacks, and the writes of one level fill whole batches.
+     * Each object is written at most once, even if it is reachable along several paths or through a cycle.
+     * @param roots objects to persist and their reflected object attributes
+     * @param writer batch writer that the generated writes are queued on
      * @throws IllegalAccessException If reflection cannot access field
      * @throws PersistenceException If there is an exception when attempting to persist object
      */
-    public void persistAll() throws IllegalAccessException, PersistenceException {
-        for (Map.Entry<Object, ReflectedObjectAttributes> attrPair : objAttrsList.entrySet()) {
-            persistRecursive(attrPair.getKey(), attrPair.getValue());
+    private void persistLevels(List<Map.Entry<Object, ReflectedObjectAttributes>> roots, BatchWriter writer) throws IllegalAccessException, PersistenceException {
+        // Objects are compared by identity, since persistable classes need not implement equals()
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<Map.Entry<Object, ReflectedObjectAttributes>> level = roots;
+
+        while (!level.isEmpty()) {
+            List<Map.Entry<Object, ReflectedObjectAttributes>> nextLevel = new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>();
+            for (ObjectRecord record : toRecords(level, visited, nextLevel)) {
+                queueRecord(record, writer);
+            }
+            level = nextLevel;
+        }
+    }
+
+    /**
+     * Build the records of one level of the object graph, skipping objects already visited
+     * @param level objects of the level and their reflected object attributes
+     * @param visited objects visited so far, compared by identity, which the level's objects are added to
+     * @param nextLevel list that the list items of the level's objects are queued on
+     * @return records of the objects not visited before
+     * @throws IllegalAccessException If reflection cannot access field
+     * @throws PersistenceException If an id field is not set
+     */
+    private List<ObjectRecord> toRecords(List<Map.Entry<Object, ReflectedObjectAttributes>> level, Set<Object> visited, List<Map.Entry<Object, ReflectedObjectAttributes>> nextLevel) throws IllegalAccessException, PersistenceException {
+        List<ObjectRecord> records = new ArrayList<ObjectRecord>(level.size());
+        for (Map.Entry<Object, ReflectedObjectAttributes> attrPair : level) {
+            if (visited.add(attrPair.getKey())) {
+                ReflectedObjectAttributes attrs = attrPair.getValue();
+                String objId = keyPrefix + attrs.getId(attrPair.getKey());
+                records.add(new ObjectRecord(attrs, objId, toRecord(attrPair.getKey(), attrs, nextLevel)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Queue the write of a single record, or only of its changed fields in dirty tracking mode
+     * @param record record to write
+     * @param writer batch writer that the generated HSET is queued on
+     * @throws PersistenceException If a flushed batch is rejected by Redis
+     */
+    private void queueRecord(ObjectRecord record, BatchWriter writer) throws PersistenceException {
+        String objId = record.objId;
+        ReflectedObjectAttributes attrs = record.attrs;
+        Map<String, String> fieldPairs = record.fieldPairs;
+
+        // In dirty tracking mode, compare against the last persisted or loaded state of this object
+        Map<String, String> snapshot = isDirtyTracking ? snapshots.get(objId) : null;
+        if (snapshot == null) {
+            // The write is queued and sent together with the rest of its batch
+            writer.write(attrs, objId, fieldPairs, fieldPairs);
+            return;
+        }
+
+        // Only the model's own fields are compared: a loaded snapshot may also hold fields the model no longer has,
+        // such as legacy fields of older records, which would otherwise make every object look changed
+        Map<String, String> changedPairs = new HashMap<String, String>();
+        for (Map.Entry<String, String> fieldPair : fieldPairs.entrySet()) {
+            if (!fieldPair.getValue().equals(snapshot.get(fieldPair.getKey()))) {
+                changedPairs.put(fieldPair.getKey(), fieldPair.getValue());
+            }
+        }
+        if (changedPairs.isEmpty()) {
+            // Never queue an HSET without field/value pairs, which Redis rejects and which aborts a MULTI/EXEC
+            writer.skip(fieldPairs.size());
+        } else if (codec.isPartialWriteSupported()) {
+            writer.write(attrs, objId, changedPairs, fieldPairs);
+        } else {
+            writer.write(attrs, objId, fieldPairs, fieldPairs);
         }
     }
 
     /**
-     * Recursively persist fields into Redis
-     * Regular call-stack function recursion is safe because recursion depth is limited to two
-     * (only top-level posts and first-level replies are allowed)
+     * Build the persisted record of a single object, and queue its list items for the next level
      * @param obj object to persist
      * @param attrs reflected object attributes of object to persist
+     * @param nextLevel list that the object's list items are queued on
+     * @return persisted field names and values, with list fields as comma-separated ids
      * @throws IllegalAccessException If reflection cannot access field
-     * @throws PersistenceException If there is an exception when attempting to persist object
+     * @throws PersistenceException If an id field is not set
      */
-    public void persistRecursive(Object obj, ReflectedObjectAttributes attrs) throws IllegalAccessException, PersistenceException {
-        String objId = attrs.getId(obj);
+    static Map<String, String> toRecord(Object obj, ReflectedObjectAttributes attrs, List<Map.Entry<Object, ReflectedObjectAttributes>> nextLevel) throws IllegalAccessException, PersistenceException {
         Map<String, String> fieldPairs = attrs.getFieldPairs(obj);
 
         // Objects in lists of the persisted objects may be added or removed independent of the parent-level object list
@@ -70,10 +483,11 @@ public class Session {
             StringBuilder idList = new StringBuilder();
 
             for (Object listObj : listObjs) {
-                // Given that recursion depth is fixed to 2 (no replies-to-replies are allowed), then call-stack recursion
-                // will not result in stack-overflow.
-                // In fact, normal call-stack recursion enables high readability.
-                persistRecursive(listObj, listObjAttrs);
+                // The list item itself is written with the rest of the next level.
+                // A lazy proxy that was never accessed only holds its id; what is in Redis for it is still current.
+                if (!PersistableProxy.isUnloadedProxy(listObj)) {
+                    nextLevel.add(new AbstractMap.SimpleImmutableEntry<Object, ReflectedObjectAttributes>(listObj, listObjAttrs));
+                }
                 String listObjId = listObjAttrs.getId(listObj);
                 idList.append(listObjId).append(",");
             }
@@ -87,8 +501,7 @@ public class Session {
             fieldPairs.put(listFields.getField().getName(), idList.toString());
         }
 
-        // Object persistence structure allows for single hset() call to persist data
-        jedisSession.hset(objId, fieldPairs);
+        return fieldPairs;
     }
 
     /**
@@ -96,18 +509,199 @@ public class Session {
      * It is a requirement that the given object have the "id" field specified
      * so that the location in Redis is known.
      *
-     * In particular, this method is bi-recursive, since it will call setFields() from the reflected object attributes class,
-     * and then setFields() may either directly call load() again,
-     * or defer a recursive call of load() if LazyLoad is specified.
+     * Eagerly loaded list items are loaded level by level, so that loading an object graph costs one pipelined
+     * round trip per level of the graph instead of one per object.
+     * Lazily loaded list items instead defer their own load() call to the proxy intercept method.
      * @param object Object to load persistence data into
      * @param objAttrs Reflected object attributes to use for setting the persistence fields on the object
      * @return Object with data optionally loaded, depending on where @LazyLoad is set.
      * @throws Exception setFields() may throw an exception
      */
     public Object load(Object object, ReflectedObjectAttributes objAttrs) throws Exception {
-        // load() method is bi-recursive: pass in this Session object so that list objects can be recursively loaded
-        objAttrs.setFields(this, object, jedisSession);
+        // The caller's instance becomes the instance of this id for the rest of the session
+        identityMap.put(objAttrs.getObjClass(), objAttrs.getId(object), object);
+        List<PendingLoad> level = new LinkedList<PendingLoad>();
+        level.add(new PendingLoad(object, objAttrs));
+        loadLevels(level);
 
         return object;
     }
+
+    /**
+     * Load the object of the given class with the given id, reusing the instance already materialized by this session if any
+     * @param objClass persistable class of the object to load
+     * @param id id of the object to load
+     * @return loaded object
+     * @param <T> type of the object to load
+     * @throws Exception Reflection or setFields() may throw an exception
+     */
+    public <T> T load(Class<T> objClass, Object id) throws Exception {
+        return loadAll(objClass, Collections.singletonList(id)).get(0);
+    }
+
+    /**
+     * Load all objects of the given class with the given ids from Redis store.
+     * All the objects, and then all of their eagerly loaded list items, are fetched level by level in pipelined batches.
+     * Ids already materialized by this session are served from its identity map without a round trip.
+     * @param objClass persistable class of the objects to load
+     * @param ids ids of the objects to load
+     * @return loaded objects, in the same order as the given ids
+     * @param <T> type of the objects to load
+     * @throws PersistenceException If some object has no record, or a record is missing a persisted field
+     * @throws Exception Reflection or setFields() may throw an exception
+     */
+    public <T> List<T> loadAll(Class<T> objClass, Collection<?> ids) throws Exception {
+        ReflectedObjectAttributes objAttrs = AttributesRegistry.get(objClass);
+        List<T> objs = new ArrayList<T>(ids.size());
+        List<PendingLoad> level = new LinkedList<PendingLoad>();
+
+        for (Object id : ids) {
+            String strId = id.toString();
+            Object loadedObj = identityMap.get(objClass, strId);
+            if (loadedObj != null) {
+                objs.add(objClass.cast(loadedObj));
+                continue;
+            }
+
+            T obj = objClass.cast(objAttrs.generateInstance());
+            objAttrs.setIdFromString(obj, strId);
+            identityMap.put(objClass, strId, obj);
+            objs.add(obj);
+            level.add(new PendingLoad(obj, objAttrs));
+        }
+        loadLevels(level);
+
+        return objs;
+    }
+
+    /**
+     * Fetch the given objects from Redis, then continue with the list items discovered on them until the whole
+     * eagerly loaded object graph is set.
+     * Each level is fetched with pipelined reads (HGETALLs with the default codec), at most batchSize per round trip.
+     * @param level first level of objects to load
+     * @throws Exception setFields() may throw an exception
+     */
+    private void loadLevels(List<PendingLoad> level) throws Exception {
+        Jedis jedis = acquire();
+        try {
+            loadLevels(level, jedis);
+        } finally {
+            release(jedis);
+        }
+    }
+
+    /**
+     * Fetch the given objects level by level on the given connection
+     * @param level first level of objects to load
+     * @param jedis Jedis connection to fetch through
+     * @throws Exception setFields() may throw an exception
+     */
+    private void loadLevels(List<PendingLoad> level, Jedis jedis) throws Exception {
+        // Every object of the graph is published in the identity map before its record is read, so that list items
+        // reachable from several parents share one instance. If the load fails, those half-set instances are evicted
+        // again, so that a later load reads them afresh instead of returning them.
+        List<PendingLoad> materialized = new ArrayList<PendingLoad>();
+        boolean isLoaded = false;
+        try {
+            loadLevels(level, jedis, materialized);
+            isLoaded = true;
+        } finally {
+            if (!isLoaded) {
+                for (PendingLoad pendingLoad : materialized) {
+                    ReflectedObjectAttributes objAttrs = pendingLoad.getObjAttrs();
+                    Object obj = pendingLoad.getObject();
+                    identityMap.remove(objAttrs.getObjClass(), objAttrs.getId(obj), obj);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch the given objects level by level on the given connection, recording every object it sets
+     * @param level first level of objects to load
+     * @param jedis Jedis connection to fetch through
+     * @param materialized collection that every object of every level is added to before it is fetched
+     * @throws Exception setFields() may throw an exception
+     */
+    private void loadLevels(List<PendingLoad> level, Jedis jedis, List<PendingLoad> materialized) throws Exception {
+        PersistenceMetrics metrics = this.metrics;
+        while (!level.isEmpty()) {
+            materialized.addAll(level);
+            List<PendingLoad> nextLevel = new LinkedList<PendingLoad>();
+            Iterator<PendingLoad> levelIter = level.iterator();
+
+            while (levelIter.hasNext()) {
+                List<PendingLoad> batch = new ArrayList<PendingLoad>(Math.min(batchSize, level.size()));
+                List<Supplier<Map<String, String>>> responses = new ArrayList<Supplier<Map<String, String>>>(batch.size());
+                List<String> batchIds = new ArrayList<String>(batch.size());
+                // Generation of each record read from Redis, taken before the read, or null if served by the cache
+                List<Long> generations = new ArrayList<Long>(batch.size());
+                RecordCache cache = recordCache;
+                // The pipeline is only opened if some object of the batch is not served by the record cache
+                Pipeline pipeline = null;
+                while (levelIter.hasNext() && batch.size() < batchSize) {
+                    PendingLoad pendingLoad = levelIter.next();
+                    // If objId is not set, then PersistenceException will be thrown (refer to ReflectedObjectAttributes class).
+                    ReflectedObjectAttributes objAttrs = pendingLoad.getObjAttrs();
+                    String objId = keyPrefix + objAttrs.getId(pendingLoad.getObject());
+                    Map<String, String> cachedPairs = cache != null ? cache.get(objId) : null;
+                    if (cachedPairs != null) {
+                        responses.add(() -> cachedPairs);
+                        generations.add(null);
+                    } else {
+                        if (pipeline == null) {
+                            pipeline = jedis.pipelined();
+                        }
+                        generations.add(cache != null ? cache.getGeneration(objId) : null);
+                        responses.add(codec.queueRead(pipeline, objAttrs, objId));
+                    }
+                    batchIds.add(objId);
+                    batch.add(pendingLoad);
+                }
+                if (pipeline != null) {
+                    long startNanos = System.nanoTime();
+                    pipeline.sync();
+                    if (metrics != null) {
+                        metrics.recordRoundTrip(codec.getReadCommand(), false, System.nanoTime() - startNanos);
+                    }
+                }
+                if (metrics != null) {
+                    metrics.recordLoaded(batch.size());
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingLoad pendingLoad = batch.get(i);
+                    Map<String, String> objPairs = responses.get(i).get();
+                    // setFields() is given this Session object so that lazily loaded list objects can later call load()
+                    pendingLoad.getObjAttrs().setFields(this, pendingLoad.getObject(), objPairs, nextLevel);
+                    // Only complete records are cached
+                    Long generation = generations.get(i);
+                    if (generation != null) {
+                        cache.put(batchIds.get(i), generation, objPairs);
+                    }
+                    // The state just read from Redis is what the next persistAll() compares against
+                    if (isDirtyTracking) {
+                        snapshots.put(batchIds.get(i), objPairs);
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+    }
+
+    /*
+     * Persisted record of one object of the graph being written, under its Redis key
+     */
+    private static final class ObjectRecord {
+        private final ReflectedObjectAttributes attrs;
+        private final String objId;
+        private final Map<String, String> fieldPairs;
+
+        ObjectRecord(ReflectedObjectAttributes attrs, String objId, Map<String, String> fieldPairs) {
+            this.attrs = attrs;
+            this.objId = objId;
+            this.fieldPairs = fieldPairs;
+        }
+    }
 }
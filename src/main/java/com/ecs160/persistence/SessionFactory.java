@@ -0,0 +1,127 @@
+package com.ecs160.persistence;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Factory for thread-safe persistence sessions backed by a shared Jedis connection pool.
+ * Sessions opened from one factory share its pool and flush executor, so a service can open a session per request,
+ * or share a single session across request threads.
+ *
+ * In virtual-thread mode, flush partitions run on virtual threads instead of a fixed pool of platform threads.
+ * Blocking on Redis then parks the virtual thread rather than holding a platform thread, so a caller that also runs
+ * on virtual threads (e.g. Tomcat with spring.threads.virtual.enabled) is limited by the pool's connections alone.
+ * Sessions only lock with java.util.concurrent locks, which do not pin a virtual thread to its carrier while it waits.
+ */
+public class SessionFactory implements Closeable {
+    private final JedisPool jedisPool;
+    private final ExecutorService flushExecutor;
+    private final int poolSize;
+    private final int pipelineDepth;
+    private final boolean isVirtualThreads;
+    // Record cache shared by every session of this factory, or null
+    private volatile RecordCache recordCache;
+    // Meters shared by every session of this factory, or null
+    private volatile PersistenceMetrics metrics;
+
+    /**
+     * Instantiate a new session factory
+     * @param host Redis host
+     * @param port Redis port
+     * @param poolSize maximum number of pooled connections, which is also the number of partitions a flush is split into
+     * @param maxWait maximum time to wait for a free connection before failing
+     * @param pipelineDepth maximum number of commands pipelined on one connection per round trip
+     */
+    public SessionFactory(String host, int port, int poolSize, Duration maxWait, int pipelineDepth) {
+        this(host, port, poolSize, maxWait, pipelineDepth, false);
+    }
+
+    /**
+     * Instantiate a new session factory, optionally flushing on virtual threads
+     * @param host Redis host
+     * @param port Redis port
+     * @param poolSize maximum number of pooled connections, which is also the number of partitions a flush is split into
+     * @param maxWait maximum time to wait for a free connection before failing
+     * @param pipelineDepth maximum number of commands pipelined on one connection per round trip
+     * @param isVirtualThreads whether flush partitions run on virtual threads rather than a fixed platform thread pool
+     */
+    public SessionFactory(String host, int port, int poolSize, Duration maxWait, int pipelineDepth, boolean isVirtualThreads) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1");
+        }
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(poolSize);
+        poolConfig.setMaxIdle(poolSize);
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setMaxWait(maxWait);
+
+        this.jedisPool = new JedisPool(poolConfig, host, port);
+        // The pool's connections, not the executor, bound how many partitions talk to Redis at once
+        this.flushExecutor = isVirtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(poolSize);
+        this.poolSize = poolSize;
+        this.pipelineDepth = pipelineDepth;
+        this.isVirtualThreads = isVirtualThreads;
+    }
+
+    /**
+     * Getter for whether flush partitions run on virtual threads
+     * @return true in virtual-thread mode
+     */
+    public boolean isVirtualThreads() {
+        return isVirtualThreads;
+    }
+
+    /**
+     * Set the record cache shared by every session opened afterwards
+     * @param recordCache record cache, or null to read straight from Redis
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * Set the meters that every session opened afterwards records its round trips and objects in
+     * @param metrics persistence meters, or null to record nothing
+     */
+    public void setMetrics(PersistenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Getter for the shared connection pool, for Redis access outside of sessions such as ingest bookkeeping
+     * @return shared connection pool
+     */
+    public JedisPool getJedisPool() {
+        return jedisPool;
+    }
+
+    /**
+     * Open a new thread-safe session on the shared pool
+     * @return new persistence session
+     */
+    public Session openSession() {
+        Session session = new Session(jedisPool, flushExecutor, poolSize);
+        session.setBatchSize(pipelineDepth);
+        session.setRecordCache(recordCache);
+        session.setMetrics(metrics);
+        return session;
+    }
+
+    /**
+     * Close the connection pool and stop the flush executor
+     */
+    @Override
+    public void close() {
+        flushExecutor.shutdown();
+        jedisPool.close();
+    }
+}
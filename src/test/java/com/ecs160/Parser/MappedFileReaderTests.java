@@ -0,0 +1,69 @@
+package com.ecs160.Parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Decoding of memory-mapped files, in particular of characters whose bytes are split across two windows
+ */
+class MappedFileReaderTests {
+    // 1-, 2-, 3- and 4-byte UTF-8 sequences (the last one a surrogate pair)
+    private static final String TEXT = "aé€😀";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void charsSplitAcrossWindowsAreDecoded() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            content.append(TEXT);
+        }
+        String expected = content.toString();
+        Path file = tempDir.resolve("feed.json");
+        Files.write(file, expected.getBytes(StandardCharsets.UTF_8));
+
+        // Every split position of every sequence falls on some window boundary across these sizes
+        for (int windowSize = 16; windowSize < 16 + 2 * TEXT.getBytes(StandardCharsets.UTF_8).length; windowSize++) {
+            for (int bufferSize : new int[] {1, 2, 7, 4096}) {
+                assertEquals(expected, readAll(file, windowSize, bufferSize), "window " + windowSize + ", buffer " + bufferSize);
+            }
+        }
+    }
+
+    @Test
+    void emptyFileIsAtEndOfInput() throws IOException {
+        Path file = Files.createFile(tempDir.resolve("empty.json"));
+        try (Reader reader = new MappedFileReader(file, 16)) {
+            assertEquals(-1, reader.read(new char[8], 0, 8));
+        }
+    }
+
+    /**
+     * Read a whole file through a mapped reader
+     * @param file file to read
+     * @param windowSize number of bytes mapped at a time
+     * @param bufferSize number of chars requested per read() call
+     * @return file content
+     * @throws IOException If the file cannot be read
+     */
+    private static String readAll(Path file, int windowSize, int bufferSize) throws IOException {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[bufferSize];
+        try (Reader reader = new MappedFileReader(file, windowSize)) {
+            int charsRead;
+            while ((charsRead = reader.read(buffer, 0, buffer.length)) != -1) {
+                content.append(buffer, 0, charsRead);
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package com.ecs160.Parser;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.testsupport.FeedGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * The streaming parser against the tree parser, which it must agree with on posts, ids and report counts
+ */
+class ParserTests {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void repliesOfRejectedThreadsAndRepliesAreDiscarded() throws Exception {
+        // The replies come before the post they belong to, so the streaming parser reads them before it knows
+        // whether the thread or reply is kept
+        Path feed = writeFeed("""
+                {"feed": [
+                  {"thread": {
+                    "replies": [{"post": {"record": {"createdAt": "2024-01-01T00:00:00Z", "text": "orphan"}}}, 7],
+                    "post": {"record": {"text": "no createdAt"}}}},
+                  {"thread": {
+                    "replies": [
+                      {"replies": [{"post": {"record": {"createdAt": "2024-01-01T00:00:01Z", "text": "nested"}}}],
+                       "post": {"record": {"createdAt": "2024-01-01T00:00:02Z", "text": "kept"}}},
+                      {"replies": [{"post": {"record": {"createdAt": "2024-01-01T00:00:03Z", "text": "lost"}}}, 7],
+                       "post": {"record": {}}}],
+                    "post": {"record": {"createdAt": "2024-01-01T00:00:04Z", "text": "top"}}}}
+                ]}
+                """);
+
+        Parser streamParser = new Parser();
+        List<Post> streamed = new ArrayList<Post>();
+        streamParser.forEachThread(false, feed.toString(), streamed::add);
+        ParseReport report = streamParser.getLastReport();
+
+        assertEquals(1, streamed.size());
+        assertEquals("0:top[1:kept[2:nested[]]]", describe(streamed.get(0)));
+        assertEquals(1, report.getThreadsParsed());
+        assertEquals(1, report.getThreadsSkipped());
+        assertEquals(2, report.getRepliesParsed());
+        assertEquals(1, report.getRepliesSkipped());
+        assertSameAsTreeParser(feed, streamed, report);
+    }
+
+    @Test
+    void streamingParserMatchesTreeParserOnGeneratedFeeds() throws Exception {
+        int[][] shapes = {{0, 1}, {5, 1}, {3, 4}};
+        for (int i = 0; i < shapes.length; i++) {
+            Path feed = tempDir.resolve("generated-" + i + ".json");
+            new FeedGenerator(160L + i, shapes[i][0], shapes[i][1]).writeFeed(feed, 200);
+
+            for (InputMode inputMode : InputMode.values()) {
+                Parser streamParser = new Parser();
+                streamParser.setInputMode(inputMode);
+                List<Post> streamed = new ArrayList<Post>();
+                streamParser.forEachThread(false, feed.toString(), streamed::add);
+
+                assertEquals(200, streamed.size());
+                assertSameAsTreeParser(feed, streamed, streamParser.getLastReport());
+            }
+        }
+    }
+
+    /**
+     * Parse the feed with the tree parser and compare it with what the streaming parser returned
+     * @param feed feed file
+     * @param streamed threads returned by the streaming parser
+     * @param streamReport report of the streaming parser
+     * @throws Exception If the feed cannot be parsed
+     */
+    private static void assertSameAsTreeParser(Path feed, List<Post> streamed, ParseReport streamReport) throws Exception {
+        Parser treeParser = new Parser();
+        List<Post> parsed = treeParser.parseThreads(false, feed.toString());
+        ParseReport treeReport = treeParser.getLastReport();
+
+        assertEquals(parsed.size(), streamed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(describe(parsed.get(i)), describe(streamed.get(i)));
+        }
+        assertEquals(treeReport.getThreadsParsed(), streamReport.getThreadsParsed());
+        assertEquals(treeReport.getThreadsSkipped(), streamReport.getThreadsSkipped());
+        assertEquals(treeReport.getRepliesParsed(), streamReport.getRepliesParsed());
+        assertEquals(treeReport.getRepliesSkipped(), streamReport.getRepliesSkipped());
+    }
+
+    /**
+     * Describe a thread as its ids and texts, with the replies of each post in brackets
+     * @param post top-level post
+     * @return description of the thread
+     */
+    private static String describe(Post post) {
+        StringBuilder description = new StringBuilder().append(post.getId()).append(':').append(post.getPostText()).append('[');
+        List<Post> replies = post.getReplies();
+        for (int i = 0; i < replies.size(); i++) {
+            if (i > 0) {
+                description.append(',');
+            }
+            description.append(describe(replies.get(i)));
+        }
+        return description.append(']').toString();
+    }
+
+    /**
+     * Write a feed document to a file in the temporary directory
+     * @param json feed document
+     * @return feed file
+     * @throws Exception If the file cannot be written
+     */
+    private Path writeFeed(String json) throws Exception {
+        Path feed = tempDir.resolve("feed.json");
+        Files.write(feed, json.getBytes(StandardCharsets.UTF_8));
+        return feed;
+    }
+}
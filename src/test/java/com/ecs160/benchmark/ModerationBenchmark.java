@@ -0,0 +1,72 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.controller.ModerationController;
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.SessionFactory;
+import com.ecs160.testsupport.FeedGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the /moderate handler per post, called directly rather than over HTTP, for banned term lists of
+ * several sizes, with and without the verdict cache. The same posts are sent over and over, like repeated bot
+ * spam, so with the cache every post is a hit once warmed up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ModerationBenchmark {
+    private static final int POSTS = 1024;
+
+    @Param({"10", "1000", "100000"})
+    public int bannedTerms;
+
+    @Param({"false", "true"})
+    public boolean isVerdictCache;
+
+    private ModerationController controller;
+    private List<Post> posts;
+    private int nextPost;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder terms = new StringBuilder();
+        for (int i = 0; i < bannedTerms; i++) {
+            terms.append(i > 0 ? "," : "").append("banned").append(i);
+        }
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        if (isVerdictCache) {
+            beans.addBean("verdictCache", new VerdictCache(VerdictCache.DEFAULT_MAX_SIZE));
+        }
+        controller = new ModerationController(terms.toString(), new ObjectMapper(),
+                // No session factory, so that only moderation itself is measured
+                beans.getBeanProvider(SessionFactory.class), beans.getBeanProvider(VerdictCache.class));
+        posts = new FeedGenerator(160L, 0, 1).generateThreads(POSTS, 0);
+    }
+
+    @Benchmark
+    public Post moderate() throws Exception {
+        Post post = posts.get(nextPost);
+        nextPost = (nextPost + 1) & (POSTS - 1);
+        return controller.moderate(post);
+    }
+}
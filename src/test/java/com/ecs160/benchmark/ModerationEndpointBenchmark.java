@@ -0,0 +1,121 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.hw2.ModerationService;
+import com.ecs160.testsupport.FeedGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Posts moderated per second over a single HTTP/1.1 connection: one POST /moderate request per post, against the
+ * same posts sent as one NDJSON stream to POST /moderate/batch.
+ * The service runs in-process on a random port, so both sides share the machine; only relative numbers matter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModerationEndpointBenchmark {
+    private static final int POSTS = 2000;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI singleUri;
+    private URI batchUri;
+    private List<byte[]> postBodies;
+    private byte[] ndjsonBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StringBuilder terms = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            terms.append(i > 0 ? "," : "").append("banned").append(i);
+        }
+        context = new SpringApplicationBuilder(ModerationService.class)
+                .properties("server.port=0", "moderation.banned-terms=" + terms)
+                .run();
+        int port = context.getEnvironment().getProperty("local.server.port", Integer.class);
+        singleUri = URI.create("http://127.0.0.1:" + port + "/moderate");
+        batchUri = URI.create("http://127.0.0.1:" + port + "/moderate/batch");
+        // Sequential HTTP/1.1 requests from one client reuse a single pooled connection
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // Posts without replies, so that each request and each line of the stream moderates one post
+        ObjectMapper mapper = new ObjectMapper();
+        postBodies = new ArrayList<byte[]>(POSTS);
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        for (Post post : new FeedGenerator(160L, 0, 1).generateThreads(POSTS, 0)) {
+            byte[] body = mapper.writeValueAsBytes(post);
+            postBodies.add(body);
+            ndjson.write(body);
+            ndjson.write('\n');
+        }
+        ndjsonBody = ndjson.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSTS)
+    public int singlePostRequests() throws Exception {
+        int bytes = 0;
+        for (byte[] body : postBodies) {
+            HttpRequest request = HttpRequest.newBuilder(singleUri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            bytes += client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body().length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSTS)
+    public int ndjsonBatchRequest() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(batchUri)
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(ndjsonBody))
+                .build();
+        // Results are read line by line as the server streams them
+        int lines = 0;
+        try (InputStream response = client.send(request, HttpResponse.BodyHandlers.ofInputStream()).body();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(response, StandardCharsets.UTF_8))) {
+            while (reader.readLine() != null) {
+                lines += 1;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,193 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.hw2.ModerationService;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Closed-loop load test of POST /moderate on the servlet stack, on platform and on virtual threads, against the
+ * reactive stack.
+ * For each concurrency level, that many requests are kept in flight until the request count is reached, and the
+ * p50/p99/max latency, throughput and errors are reported. The highest level that stays error-free with p99 under
+ * the latency objective is reported as the max concurrency of each stack.
+ *
+ * Moderated posts are persisted to the in-process RESP stub, so that the servlet stack holds its threads during
+ * Redis round trips the way it does in production. All stacks run in this JVM, one after the other.
+ *
+ * Usage:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.ecs160.benchmark.ModerationLoadBenchmark
+ *       -Dexec.args="[concurrency levels, comma-separated] [requests per level] [p99 objective in ms]"
+ */
+public class ModerationLoadBenchmark {
+    private static final int POSTS = 1024;
+
+    private final int[] concurrencyLevels;
+    private final int requestsPerLevel;
+    private final long p99ObjectiveNanos;
+    private final List<byte[]> postBodies;
+
+    /**
+     * Instantiate a new load test
+     * @param concurrencyLevels numbers of requests kept in flight, in increasing order
+     * @param requestsPerLevel number of requests sent per level
+     * @param p99ObjectiveMillis p99 latency that a level must stay under to count towards max concurrency
+     * @throws Exception If the posts cannot be serialized
+     */
+    public ModerationLoadBenchmark(int[] concurrencyLevels, int requestsPerLevel, long p99ObjectiveMillis) throws Exception {
+        this.concurrencyLevels = concurrencyLevels;
+        this.requestsPerLevel = requestsPerLevel;
+        this.p99ObjectiveNanos = TimeUnit.MILLISECONDS.toNanos(p99ObjectiveMillis);
+
+        ObjectMapper mapper = new ObjectMapper();
+        this.postBodies = new ArrayList<byte[]>(POSTS);
+        for (Post post : new FeedGenerator(160L, 0, 1).generateThreads(POSTS, 0)) {
+            postBodies.add(mapper.writeValueAsBytes(post));
+        }
+    }
+
+    /**
+     * Start the service on the given web stack and run every concurrency level against it
+     * @param webApplicationType "servlet" or "reactive"
+     * @param isVirtualThreads whether servlet requests are handled on virtual threads
+     * @param redis RESP stub that moderated posts are persisted to
+     * @throws Exception If the service cannot be started
+     */
+    public void run(String webApplicationType, boolean isVirtualThreads, RespStubServer redis) throws Exception {
+        String label = isVirtualThreads ? webApplicationType + "/virtual" : webApplicationType;
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ModerationService.class)
+                .properties(
+                        "server.port=0",
+                        "spring.main.web-application-type=" + webApplicationType,
+                        "spring.threads.virtual.enabled=" + isVirtualThreads,
+                        "moderation.banned-terms=spam,scam,phishing",
+                        "moderation.redis.host=" + redis.getHost(),
+                        "moderation.redis.port=" + redis.getPort())
+                .run();
+        try {
+            int port = context.getEnvironment().getProperty("local.server.port", Integer.class);
+            URI uri = URI.create("http://127.0.0.1:" + port + "/moderate");
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            // Warm up both sides before measuring
+            runLevel(client, uri, concurrencyLevels[0], requestsPerLevel);
+
+            int maxConcurrency = 0;
+            for (int concurrency : concurrencyLevels) {
+                LevelResult result = runLevel(client, uri, concurrency, requestsPerLevel);
+                System.out.printf("%-16s concurrency %5d: %s%n", label, concurrency, result);
+                if (result.errors == 0 && result.percentile(0.99) <= p99ObjectiveNanos) {
+                    maxConcurrency = concurrency;
+                }
+            }
+            System.out.printf("%-16s max concurrency with p99 <= %d ms: %d%n",
+                    label, TimeUnit.NANOSECONDS.toMillis(p99ObjectiveNanos), maxConcurrency);
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Send the given number of requests, keeping the given number in flight
+     * @param client HTTP client
+     * @param uri endpoint to send to
+     * @param concurrency number of requests kept in flight
+     * @param requests number of requests to send
+     * @return latencies and errors of the level
+     * @throws InterruptedException If interrupted while waiting for responses
+     */
+    private LevelResult runLevel(HttpClient client, URI uri, int concurrency, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int requestIndex = i;
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(postBodies.get(i % POSTS)))
+                    .build();
+            long sentNanos = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+                latencies[requestIndex] = System.nanoTime() - sentNanos;
+                if (ex != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+
+        return new LevelResult(latencies, errors.get(), System.nanoTime() - startNanos);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] levels = Arrays.stream((args.length > 0 ? args[0] : "16,64,256,1024").split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        long p99Objective = args.length > 2 ? Long.parseLong(args[2]) : 100;
+
+        ModerationLoadBenchmark benchmark = new ModerationLoadBenchmark(levels, requests, p99Objective);
+        try (RespStubServer redis = new RespStubServer()) {
+            benchmark.run("servlet", false, redis);
+            redis.flushAll();
+            benchmark.run("servlet", true, redis);
+            redis.flushAll();
+            benchmark.run("reactive", false, redis);
+        }
+    }
+
+    /*
+     * Latencies, errors and duration of one concurrency level
+     */
+    private static final class LevelResult {
+        private final long[] sortedLatencies;
+        private final int errors;
+        private final long durationNanos;
+
+        LevelResult(long[] latencies, int errors, long durationNanos) {
+            this.sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+            this.errors = errors;
+            this.durationNanos = durationNanos;
+        }
+
+        long percentile(double fraction) {
+            int index = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8.0f req/s, p50 %6.2f ms, p99 %7.2f ms, max %7.2f ms, %d errors",
+                    sortedLatencies.length * 1e9 / durationNanos,
+                    percentile(0.50) / 1e6, percentile(0.99) / 1e6,
+                    sortedLatencies[sortedLatencies.length - 1] / 1e6, errors);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.Parser.IdAllocator;
+import com.ecs160.ingest.ParallelIngester;
+import com.ecs160.testsupport.FeedGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Scaling of ParallelIngester with the number of worker threads, in ordered and unordered mode.
+ * The score is feed files parsed per second; with perfect scaling it grows linearly with the worker count, until
+ * the workers outnumber the cores or the files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParallelIngestBenchmark {
+    private static final int FILES = 32;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int workerThreads;
+
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    @Param({"2000"})
+    public int threadsPerFile;
+
+    private List<Path> feedFiles;
+    private List<String> feedFileNames;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        feedFiles = new ArrayList<Path>(FILES);
+        feedFileNames = new ArrayList<String>(FILES);
+        for (int i = 0; i < FILES; i++) {
+            Path feedFile = Files.createTempFile("feed-" + i + "-", ".json");
+            new FeedGenerator(160L + i, 5, 1).writeFeed(feedFile, threadsPerFile);
+            feedFiles.add(feedFile);
+            feedFileNames.add(feedFile.toString());
+        }
+        workers = new ForkJoinPool(workerThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workers.shutdownNow();
+        for (Path feedFile : feedFiles) {
+            Files.deleteIfExists(feedFile);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public long ingest() throws Exception {
+        // A new allocator each time, as a fresh ingest run would have
+        ParallelIngester ingester = new ParallelIngester(workers, new IdAllocator(), ordered);
+        LongAdder threads = new LongAdder();
+        ingester.ingest(feedFileNames, thread -> threads.increment());
+        return threads.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.Parser.InputMode;
+import com.ecs160.Parser.Parser;
+import com.ecs160.Parser.ThreadIterator;
+import com.ecs160.testsupport.FeedGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Parse throughput of generated feeds of several sizes, comparing the tree parser (parseThreads) with the streaming
+ * parser (streamThreads), and the buffered reader with the memory-mapped input mode.
+ * Run with "-prof gc" to also report bytes allocated per operation; divide by the number of posts in the feed
+ * (threads * (1 + replies)) for the allocation per post.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int threads;
+
+    @Param({"READER", "MAPPED"})
+    public InputMode inputMode;
+
+    private Path feedFile;
+
+    @Setup(Level.Trial)
+    public void writeFeed() throws IOException {
+        feedFile = Files.createTempFile("feed-" + threads, ".json");
+        new FeedGenerator(160L, 5, 1).writeFeed(feedFile, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFeed() throws IOException {
+        Files.deleteIfExists(feedFile);
+    }
+
+    @Benchmark
+    public List<Post> parseThreads() throws Exception {
+        Parser parser = new Parser();
+        parser.setInputMode(inputMode);
+        return parser.parseThreads(false, feedFile.toString());
+    }
+
+    @Benchmark
+    public void streamThreads(Blackhole blackhole) throws Exception {
+        Parser parser = new Parser();
+        parser.setInputMode(inputMode);
+        try (ThreadIterator threadIter = parser.streamThreads(false, feedFile.toString())) {
+            while (threadIter.hasNext()) {
+                blackhole.consume(threadIter.next());
+            }
+        }
+    }
+}
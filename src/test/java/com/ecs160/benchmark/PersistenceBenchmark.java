@@ -0,0 +1,100 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.BinaryRecordCodec;
+import com.ecs160.persistence.HashRecordCodec;
+import com.ecs160.persistence.PersistResult;
+import com.ecs160.persistence.RecordCodec;
+import com.ecs160.persistence.Session;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Session.persistAll() and Session.loadAll() of a batch of threads on a single connection, per record codec and with
+ * and without MULTI/EXEC around each pipelined batch of writes, against the in-process RESP stub.
+ * Atomic mode does not change how records are read, so loadAll() scores are the same for both.
+ *
+ * The stub says nothing about how much memory each codec takes in Redis; RecordMemoryReport measures that against a
+ * real Redis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersistenceBenchmark {
+    @Param({"1000"})
+    public int threads;
+
+    @Param({"HASH", "BINARY"})
+    public String codecName;
+
+    @Param({"false", "true"})
+    public boolean atomic;
+
+    private RespStubServer server;
+    private Jedis jedis;
+    private RecordCodec codec;
+    private List<Post> posts;
+    private List<Integer> threadIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RespStubServer();
+        jedis = new Jedis(server.getHost(), server.getPort());
+        codec = codecName.equals("BINARY") ? new BinaryRecordCodec() : new HashRecordCodec();
+        posts = new FeedGenerator(160L, 5, 1).generateThreads(threads, 0);
+        threadIds = new ArrayList<Integer>(threads);
+        for (Post post : posts) {
+            threadIds.add(post.getId());
+        }
+
+        // Stored once up front, so that loadAll() reads what persistAll() writes
+        persistAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jedis.close();
+        server.close();
+    }
+
+    @Benchmark
+    public PersistResult persistAll() throws Exception {
+        Session session = new Session(jedis);
+        session.setCodec(codec);
+        session.setAtomic(atomic);
+        for (Post post : posts) {
+            session.add(post);
+        }
+        return session.persistAll();
+    }
+
+    @Benchmark
+    public List<Post> loadAll() throws Exception {
+        // A new session each time, so that nothing is served from its identity map
+        Session session = new Session(jedis);
+        session.setCodec(codec);
+        return session.loadAll(Post.class, threadIds);
+    }
+}
@@ -0,0 +1,78 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.PersistResult;
+import com.ecs160.persistence.SessionFactory;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Persist throughput of several request threads sharing one SessionFactory, each opening a session per batch
+ * as a service would per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class PooledPersistenceBenchmark {
+    @Param({"1", "4", "8"})
+    public int poolSize;
+
+    private RespStubServer server;
+    private SessionFactory sessionFactory;
+    private final AtomicInteger nextThreadIndex = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new RespStubServer();
+        sessionFactory = new SessionFactory(server.getHost(), server.getPort(), poolSize, Duration.ofSeconds(5), 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sessionFactory.close();
+        server.close();
+    }
+
+    /*
+     * Batch of threads owned by one benchmark thread, with ids that do not overlap other benchmark threads
+     */
+    @State(Scope.Thread)
+    public static class ThreadBatch {
+        private List<Post> posts;
+
+        @Setup(Level.Trial)
+        public void setUp(PooledPersistenceBenchmark benchmark) {
+            int threadIndex = benchmark.nextThreadIndex.getAndIncrement();
+            posts = new FeedGenerator(160L + threadIndex, 5, 1).generateThreads(100, threadIndex * 1000000);
+        }
+    }
+
+    @Benchmark
+    public PersistResult persistBatch(ThreadBatch batch) throws Exception {
+        return sessionFactory.openSession().persist(batch.posts);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.AttributesRegistry;
+import com.ecs160.persistence.PersistableProxy;
+import com.ecs160.persistence.ReflectedObjectAttributes;
+import com.ecs160.persistence.Session;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of lazily loaded list items: creating a proxy per item, calling a method that does not touch persisted
+ * fields, and the first call that does, which loads the item through the session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProxyBenchmark {
+    private static final String POST_ID = "42";
+
+    private RespStubServer server;
+    private Jedis jedis;
+    private Session session;
+    private ReflectedObjectAttributes attrs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RespStubServer();
+        jedis = new Jedis(server.getHost(), server.getPort());
+        session = new Session(jedis);
+        session.persist(new FeedGenerator(160L, 0, 1).generateThreads(1, Integer.parseInt(POST_ID)));
+        attrs = AttributesRegistry.get(Post.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jedis.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Object createProxy() throws Exception {
+        return PersistableProxy.generateProxy(session, attrs, POST_ID);
+    }
+
+    @Benchmark
+    public int createAndReadId() throws Exception {
+        // getId() only reads the id, so it is not intercepted and does not load the proxy
+        return ((Post) PersistableProxy.generateProxy(session, attrs, POST_ID)).getId();
+    }
+
+    @Benchmark
+    public String createAndFirstAccess() throws Exception {
+        return ((Post) PersistableProxy.generateProxy(session, attrs, POST_ID)).getPostText();
+    }
+}
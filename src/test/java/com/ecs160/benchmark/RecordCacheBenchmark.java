@@ -0,0 +1,104 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.RecordCache;
+import com.ecs160.persistence.Session;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of loading single posts by id, with ids drawn from a Zipfian distribution as in a real feed where a few
+ * threads are read far more often than the rest, with and without the shared record cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RecordCacheBenchmark {
+    private static final int POSTS = 100000;
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"false", "true"})
+    public boolean isCached;
+
+    @Param({"0.99"})
+    public double zipfExponent;
+
+    private RespStubServer server;
+    private Jedis jedis;
+    private RecordCache recordCache;
+    private int[] sampledIds;
+    private int nextSample;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RespStubServer();
+        jedis = new Jedis(server.getHost(), server.getPort());
+        new Session(jedis).persist(new FeedGenerator(160L, 0, 1).generateThreads(POSTS, 0));
+        // Sized to a tenth of the posts, so that the tail of the distribution still misses
+        recordCache = isCached ? new RecordCache(POSTS / 10, Duration.ofMinutes(10)) : null;
+        sampledIds = sampleZipf(new Random(160L), POSTS, zipfExponent, SAMPLES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jedis.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Post loadById() throws Exception {
+        // A new session each time, so that only the shared record cache can save the round trip
+        Session session = new Session(jedis);
+        session.setRecordCache(recordCache);
+        int id = sampledIds[nextSample];
+        nextSample = (nextSample + 1) & (SAMPLES - 1);
+        return session.load(Post.class, id);
+    }
+
+    /**
+     * Draw ids from a Zipfian distribution by inverting its cumulative distribution
+     * @param random random source
+     * @param idCount number of distinct ids
+     * @param exponent Zipf exponent
+     * @param sampleCount number of samples
+     * @return sampled ids, where id 0 is the most frequent
+     */
+    private static int[] sampleZipf(Random random, int idCount, double exponent, int sampleCount) {
+        double[] cumulative = new double[idCount];
+        double sum = 0;
+        for (int i = 0; i < idCount; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+
+        int[] samples = new int[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            samples[i] = index >= 0 ? index : Math.min(-index - 1, idCount - 1);
+        }
+        return samples;
+    }
+}
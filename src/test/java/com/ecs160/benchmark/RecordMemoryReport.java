@@ -0,0 +1,110 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.BinaryRecordCodec;
+import com.ecs160.persistence.HashRecordCodec;
+import com.ecs160.persistence.RecordCodec;
+import com.ecs160.persistence.Session;
+import com.ecs160.testsupport.FeedGenerator;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/*
+ * Memory that a real Redis spends on the same batch of threads under each record codec. The RESP stub holds values
+ * in Java maps, so it says nothing about this, and neither does PersistenceBenchmark.
+ *
+ * For each codec, the threads are persisted under a key prefix of their own, then the report sums MEMORY USAGE over
+ * their keys and takes the growth of used_memory from INFO memory. The keys are deleted again afterwards, so the
+ * report can run against a Redis that holds other data; used_memory is then only as exact as that Redis is idle.
+ *
+ * Usage:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.ecs160.benchmark.RecordMemoryReport
+ *       -Dexec.args="[Redis host] [Redis port] [threads]"
+ */
+public class RecordMemoryReport {
+    private static final String KEY_PREFIX = "memory-report:";
+
+    private final Jedis jedis;
+    private final List<Post> posts;
+    private final List<String> ids;
+
+    /**
+     * Instantiate a new memory report
+     * @param jedis connection to the Redis to measure
+     * @param threads number of threads to persist, with five replies each
+     */
+    public RecordMemoryReport(Jedis jedis, int threads) {
+        this.jedis = jedis;
+        this.posts = new FeedGenerator(160L, 5, 1).generateThreads(threads, 0);
+        this.ids = new ArrayList<String>();
+        Deque<Post> pending = new ArrayDeque<Post>(posts);
+        while (!pending.isEmpty()) {
+            Post post = pending.pop();
+            ids.add(String.valueOf(post.getId()));
+            pending.addAll(post.getReplies());
+        }
+    }
+
+    /**
+     * Persist the threads with the given codec, report the memory they take, then delete them
+     * @param codecName name to report the codec under, also part of the key prefix
+     * @param codec codec to persist with
+     * @throws Exception If persisting fails
+     */
+    public void run(String codecName, RecordCodec codec) throws Exception {
+        String keyPrefix = KEY_PREFIX + codecName + ":";
+        long usedBefore = usedMemory();
+
+        Session session = new Session(jedis);
+        session.setCodec(codec);
+        session.setKeyPrefix(keyPrefix);
+        session.persist(posts);
+
+        long usedAfter = usedMemory();
+        long keyBytes = 0;
+        for (String id : ids) {
+            Long usage = jedis.memoryUsage(keyPrefix + id);
+            if (usage == null) {
+                throw new IllegalStateException("Record " + keyPrefix + id + " was not written");
+            }
+            keyBytes += usage;
+        }
+        System.out.printf("%-8s %7d records: MEMORY USAGE %10d bytes (%6.1f per record), used_memory +%10d bytes%n",
+                codecName, ids.size(), keyBytes, (double) keyBytes / ids.size(), usedAfter - usedBefore);
+
+        String[] keys = new String[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyPrefix + ids.get(i);
+        }
+        jedis.del(keys);
+    }
+
+    /**
+     * Getter for the memory the Redis currently uses
+     * @return used_memory from INFO memory, in bytes
+     */
+    private long usedMemory() {
+        for (String line : jedis.info("memory").split("\r\n")) {
+            if (line.startsWith("used_memory:")) {
+                return Long.parseLong(line.substring("used_memory:".length()));
+            }
+        }
+        throw new IllegalStateException("INFO memory has no used_memory");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        try (Jedis jedis = new Jedis(host, port)) {
+            RecordMemoryReport report = new RecordMemoryReport(jedis, threads);
+            report.run("HASH", new HashRecordCodec());
+            report.run("BINARY", new BinaryRecordCodec());
+        }
+    }
+}
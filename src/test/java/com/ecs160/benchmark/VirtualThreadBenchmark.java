@@ -0,0 +1,118 @@
+package com.ecs160.benchmark;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.persistence.AttributesRegistry;
+import com.ecs160.persistence.PersistableProxy;
+import com.ecs160.persistence.ReflectedObjectAttributes;
+import com.ecs160.persistence.Session;
+import com.ecs160.persistence.SessionFactory;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput of I/O-bound requests on a fixed pool of platform threads, as Tomcat serves them by default, against
+ * one virtual thread per request. Each request persists a post through a session shared by all requests, then reads
+ * it back through a lazy proxy, so it blocks on two Redis round trips.
+ *
+ * The RESP stub delays every reply to stand in for a remote Redis. With platform threads, concurrency is capped by
+ * the thread count, and most connections of the pool sit idle; with virtual threads, it is capped by the pool.
+ * The score is requests per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VirtualThreadBenchmark {
+    private static final int REQUESTS = 2048;
+
+    @Param({"platform", "virtual"})
+    public String threadMode;
+
+    // Number of platform threads, the default maximum of Tomcat's request thread pool
+    @Param({"200"})
+    public int platformThreads;
+
+    @Param({"512"})
+    public int poolSize;
+
+    @Param({"1"})
+    public int redisLatencyMillis;
+
+    private RespStubServer server;
+    private SessionFactory sessionFactory;
+    private Session session;
+    private ReflectedObjectAttributes attrs;
+    private ExecutorService requestThreads;
+    private List<Post> posts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        boolean isVirtualThreads = threadMode.equals("virtual");
+        server = new RespStubServer();
+        server.setResponseDelay(Duration.ofMillis(redisLatencyMillis));
+        sessionFactory = new SessionFactory(server.getHost(), server.getPort(), poolSize, Duration.ofSeconds(30),
+                Session.DEFAULT_BATCH_SIZE, isVirtualThreads);
+        session = sessionFactory.openSession();
+        attrs = AttributesRegistry.get(Post.class);
+        requestThreads = isVirtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(platformThreads);
+        posts = new FeedGenerator(160L, 0, 1).generateThreads(REQUESTS, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        requestThreads.shutdownNow();
+        sessionFactory.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int persistAndLoad() throws Exception {
+        List<Future<String>> responses = new ArrayList<Future<String>>(REQUESTS);
+        for (Post post : posts) {
+            responses.add(requestThreads.submit(() -> handle(post)));
+        }
+        int length = 0;
+        for (Future<String> response : responses) {
+            length += response.get().length();
+        }
+        return length;
+    }
+
+    /**
+     * Handle one request: persist the post, then read it back through a fresh lazy proxy
+     * @param post post of the request
+     * @return text of the loaded post
+     * @throws Exception If persisting or loading fails
+     */
+    private String handle(Post post) throws Exception {
+        session.persist(Collections.singletonList(post));
+        Post loaded = (Post) PersistableProxy.generateProxy(session, attrs, String.valueOf(post.getId()));
+        return loaded.getPostText();
+    }
+}
@@ -0,0 +1,145 @@
+package com.ecs160.controller;
+
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.Session;
+import com.ecs160.persistence.SessionFactory;
+import com.ecs160.testsupport.RespStubServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import redis.clients.jedis.Jedis;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ * Endpoints of ModerationController, persisting to an in-process RESP stub
+ */
+class ModerationControllerTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private RespStubServer server;
+    private SessionFactory sessionFactory;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new RespStubServer();
+        sessionFactory = new SessionFactory(server.getHost(), server.getPort(), 4, Duration.ofSeconds(5), Session.DEFAULT_BATCH_SIZE);
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("sessionFactory", sessionFactory);
+        ModerationController controller = new ModerationController("spam,scam", mapper,
+                beans.getBeanProvider(SessionFactory.class), beans.getBeanProvider(VerdictCache.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sessionFactory.close();
+        server.close();
+    }
+
+    @Test
+    void postIsModeratedAndPersistedWithItsReplies() throws Exception {
+        JsonNode post = moderate("{\"postText\":\"hello\",\"replies\":[{\"postText\":\"buy SPAM now\"}]}");
+        JsonNode reply = post.get("replies").get(0);
+        assertFalse(post.get("blocked").asBoolean());
+        assertTrue(reply.get("blocked").asBoolean());
+
+        assertEquals("hello", storedPost(post).get("postContent"));
+        assertEquals("buy SPAM now", storedPost(reply).get("postContent"));
+    }
+
+    @Test
+    void postWithoutTextOrWithNullReplyIsRejected() throws Exception {
+        for (String body : new String[] {"{\"replies\":[]}", "{\"postText\":\"hello\",\"replies\":[null]}"}) {
+            mockMvc.perform(post("/moderate").contentType(MediaType.APPLICATION_JSON).content(body))
+                    .andExpect(status().isBadRequest());
+        }
+        assertEquals(0, server.size());
+    }
+
+    @Test
+    void jsonArrayBatchIsAnsweredThreadByThread() throws Exception {
+        String body = "[{\"postText\":\"a scam\"},{\"postText\":\"fine\",\"replies\":[{\"postText\":\"more spam\"}]}]";
+        String response = mockMvc.perform(post("/moderate/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        JsonNode threads = mapper.readTree(response);
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(0).get("blocked").asBoolean());
+        assertFalse(threads.get(1).get("blocked").asBoolean());
+        JsonNode reply = threads.get(1).get("replies").get(0);
+        assertTrue(reply.get("blocked").asBoolean());
+
+        assertEquals("a scam", storedPost(threads.get(0)).get("postContent"));
+        assertEquals("fine", storedPost(threads.get(1)).get("postContent"));
+        assertEquals("more spam", storedPost(reply).get("postContent"));
+    }
+
+    @Test
+    void ndjsonBatchIsAnsweredOneThreadPerLine() throws Exception {
+        String[] texts = {"hello", "spam", "bye"};
+        String body = "{\"postText\":\"hello\"}\n{\"postText\":\"spam\"}\n{\"postText\":\"bye\"}\n";
+        String response = mockMvc.perform(post("/moderate/batch").contentType(MediaType.APPLICATION_NDJSON).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = response.split("\n");
+        assertEquals(texts.length, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode thread = mapper.readTree(lines[i]);
+            assertEquals(texts[i], thread.get("postText").asText());
+            assertEquals(i == 1, thread.get("blocked").asBoolean());
+            assertEquals(texts[i], storedPost(thread).get("postContent"));
+        }
+    }
+
+    @Test
+    void reloadedTermsApplyToLaterRequests() throws Exception {
+        String count = mockMvc.perform(put("/moderate/terms").contentType(MediaType.TEXT_PLAIN).content("eggs\n\nham"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertEquals("2", count);
+
+        assertFalse(moderate("{\"postText\":\"spam\"}").get("blocked").asBoolean());
+        assertTrue(moderate("{\"postText\":\"green eggs\"}").get("blocked").asBoolean());
+    }
+
+    /**
+     * Moderate a thread through POST /moderate
+     * @param body JSON of the thread
+     * @return JSON of the moderated thread
+     * @throws Exception If the request fails
+     */
+    private JsonNode moderate(String body) throws Exception {
+        String response = mockMvc.perform(post("/moderate").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return mapper.readTree(response);
+    }
+
+    /**
+     * Read the persisted record of a moderated post
+     * @param post JSON of the post, carrying its server-assigned id
+     * @return persisted fields of the post
+     */
+    private Map<String, String> storedPost(JsonNode post) {
+        try (Jedis jedis = sessionFactory.getJedisPool().getResource()) {
+            return jedis.hgetAll(RequestPosts.KEY_PREFIX + post.get("id").asText());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.ecs160.controller;
+
+import com.ecs160.moderation.VerdictCache;
+import com.ecs160.persistence.ReactiveSession;
+import com.ecs160.testsupport.RespStubServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import redis.clients.jedis.Jedis;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Endpoints of ReactiveModerationController, persisting to an in-process RESP stub
+ */
+class ReactiveModerationControllerTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private RespStubServer server;
+    private ReactiveSession session;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new RespStubServer();
+        session = new ReactiveSession(server.getHost(), server.getPort());
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("reactiveSession", session);
+        ReactiveModerationController controller = new ReactiveModerationController("spam,scam",
+                beans.getBeanProvider(ReactiveSession.class), beans.getBeanProvider(VerdictCache.class));
+        client = WebTestClient.bindToController(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    void postIsModeratedAndPersistedWithItsReplies() throws Exception {
+        JsonNode post = moderate("{\"postText\":\"hello\",\"replies\":[{\"postText\":\"buy SPAM now\"}]}");
+        JsonNode reply = post.get("replies").get(0);
+        assertFalse(post.get("blocked").asBoolean());
+        assertTrue(reply.get("blocked").asBoolean());
+
+        assertEquals("hello", storedPost(post).get("postContent"));
+        assertEquals("buy SPAM now", storedPost(reply).get("postContent"));
+    }
+
+    @Test
+    void postWithoutTextOrWithNullReplyIsRejected() {
+        for (String body : new String[] {"{\"replies\":[]}", "{\"postText\":\"hello\",\"replies\":[null]}"}) {
+            client.post().uri("/moderate").contentType(MediaType.APPLICATION_JSON).bodyValue(body)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+        assertEquals(0, server.size());
+    }
+
+    @Test
+    void jsonArrayBatchIsAnsweredThreadByThread() throws Exception {
+        String body = "[{\"postText\":\"a scam\"},{\"postText\":\"fine\",\"replies\":[{\"postText\":\"more spam\"}]}]";
+        String response = client.post().uri("/moderate/batch")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        JsonNode threads = mapper.readTree(response);
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(0).get("blocked").asBoolean());
+        assertFalse(threads.get(1).get("blocked").asBoolean());
+        JsonNode reply = threads.get(1).get("replies").get(0);
+        assertTrue(reply.get("blocked").asBoolean());
+
+        assertEquals("a scam", storedPost(threads.get(0)).get("postContent"));
+        assertEquals("fine", storedPost(threads.get(1)).get("postContent"));
+        assertEquals("more spam", storedPost(reply).get("postContent"));
+    }
+
+    @Test
+    void ndjsonBatchIsAnsweredOneThreadPerLine() throws Exception {
+        String[] texts = {"hello", "spam", "bye"};
+        String body = "{\"postText\":\"hello\"}\n{\"postText\":\"spam\"}\n{\"postText\":\"bye\"}\n";
+        String response = client.post().uri("/moderate/batch")
+                .contentType(MediaType.APPLICATION_NDJSON).accept(MediaType.APPLICATION_NDJSON).bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        String[] lines = response.split("\n");
+        assertEquals(texts.length, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode thread = mapper.readTree(lines[i]);
+            assertEquals(texts[i], thread.get("postText").asText());
+            assertEquals(i == 1, thread.get("blocked").asBoolean());
+            assertEquals(texts[i], storedPost(thread).get("postContent"));
+        }
+    }
+
+    @Test
+    void reloadedTermsApplyToLaterRequests() throws Exception {
+        String count = client.put().uri("/moderate/terms").contentType(MediaType.TEXT_PLAIN).bodyValue("eggs\n\nham")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertEquals("2", count);
+
+        assertFalse(moderate("{\"postText\":\"spam\"}").get("blocked").asBoolean());
+        assertTrue(moderate("{\"postText\":\"green eggs\"}").get("blocked").asBoolean());
+    }
+
+    /**
+     * Moderate a thread through POST /moderate
+     * @param body JSON of the thread
+     * @return JSON of the moderated thread
+     * @throws Exception If the response is not JSON
+     */
+    private JsonNode moderate(String body) throws Exception {
+        String response = client.post().uri("/moderate").contentType(MediaType.APPLICATION_JSON).bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        return mapper.readTree(response);
+    }
+
+    /**
+     * Read the persisted record of a moderated post
+     * @param post JSON of the post, carrying its server-assigned id
+     * @return persisted fields of the post
+     */
+    private Map<String, String> storedPost(JsonNode post) {
+        try (Jedis jedis = new Jedis(server.getHost(), server.getPort())) {
+            return jedis.hgetAll(RequestPosts.KEY_PREFIX + post.get("id").asText());
+        }
+    }
+}
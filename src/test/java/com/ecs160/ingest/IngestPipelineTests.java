@@ -0,0 +1,199 @@
+package com.ecs160.ingest;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.Parser.Parser;
+import com.ecs160.persistence.PersistResult;
+import com.ecs160.persistence.SessionFactory;
+import com.ecs160.testsupport.FeedGenerator;
+import com.ecs160.testsupport.RespStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * Checkpointed, deduplicated ingest runs against the in-process RESP stub, including a run that fails mid-feed
+ */
+class IngestPipelineTests {
+    private static final int THREADS = 50;
+    private static final int BATCH_SIZE = 10;
+    // Each generated thread has 3 replies with one nested reply below each
+    private static final int POSTS_PER_THREAD = 1 + 3 * 2;
+
+    @TempDir
+    Path tempDir;
+
+    private RespStubServer server;
+    private SessionFactory sessionFactory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new RespStubServer();
+        sessionFactory = new SessionFactory(server.getHost(), server.getPort(), 4, Duration.ofSeconds(5), 100);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sessionFactory.close();
+        server.close();
+    }
+
+    @Test
+    void failedRunResumesWithoutLosingOrDuplicatingThreads() throws Exception {
+        Path feed = writeFeed("feed.json", 160L);
+        CheckpointStore checkpointStore = new RedisCheckpointStore(sessionFactory.getJedisPool());
+
+        // The third batch reaches Redis, but the process dies before its checkpoint is saved
+        IngestPipeline failing = newPipeline(new FailingCheckpointStore(checkpointStore, 3));
+        assertThrows(IOException.class, () -> failing.run(false, feed.toString()));
+        assertEquals(2 * BATCH_SIZE, checkpointStore.load(feed.toString()).getFeedIndex());
+
+        IngestPipeline resumed = newPipeline(checkpointStore);
+        PersistResult result = resumed.run(false, feed.toString());
+        // The third batch is parsed again, and skipped as already persisted
+        assertEquals(BATCH_SIZE, resumed.getThreadsDeduplicated());
+        assertEquals(THREADS, checkpointStore.load(feed.toString()).getFeedIndex());
+        assertEquals((THREADS - 3 * BATCH_SIZE) * POSTS_PER_THREAD, result.getObjectsWritten());
+
+        // Every post of the feed is stored exactly once, each under its own id
+        assertEquals(postTexts(feed), storedPostTexts());
+    }
+
+    @Test
+    void laterFeedsNeverReuseIds() throws Exception {
+        Path first = writeFeed("first.json", 160L);
+        Path second = writeFeed("second.json", 161L);
+        CheckpointStore checkpointStore = new FileCheckpointStore(tempDir.resolve("checkpoints"));
+
+        newPipeline(checkpointStore).run(false, first.toString());
+        newPipeline(checkpointStore).run(false, second.toString());
+
+        List<String> expected = new ArrayList<String>(postTexts(first));
+        expected.addAll(postTexts(second));
+        Collections.sort(expected);
+        assertEquals(expected, storedPostTexts());
+    }
+
+    @Test
+    void checkpointsSurviveSaveAndLoad() throws Exception {
+        // Feed names may be paths, with characters a file name cannot hold
+        String feedName = tempDir.resolve("feeds/a feed.json").toString();
+        for (CheckpointStore store : Arrays.asList(new FileCheckpointStore(tempDir.resolve("checkpoints")), new RedisCheckpointStore(sessionFactory.getJedisPool()))) {
+            assertNull(store.load(feedName));
+            store.save(feedName, new IngestCheckpoint(20));
+            assertEquals(20, store.load(feedName).getFeedIndex());
+            store.save(feedName, new IngestCheckpoint(30));
+            assertEquals(30, store.load(feedName).getFeedIndex());
+            store.clear(feedName);
+            assertNull(store.load(feedName));
+        }
+    }
+
+    /**
+     * Create a deduplicating pipeline that persists through a new pooled session
+     * @param checkpointStore store to checkpoint to and resume from
+     * @return new pipeline
+     */
+    private IngestPipeline newPipeline(CheckpointStore checkpointStore) {
+        IngestPipeline pipeline = new IngestPipeline(sessionFactory.openSession(), 4, BATCH_SIZE);
+        pipeline.setCheckpointStore(checkpointStore);
+        pipeline.setDeduplicator(new ThreadDeduplicator(sessionFactory.getJedisPool()));
+        return pipeline;
+    }
+
+    /**
+     * Write a generated feed of THREADS threads
+     * @param fileName name of the feed file in the temporary directory
+     * @param seed random seed, so that feeds of different seeds hold different posts
+     * @return feed file
+     * @throws IOException If the feed cannot be written
+     */
+    private Path writeFeed(String fileName, long seed) throws IOException {
+        Path feed = tempDir.resolve(fileName);
+        new FeedGenerator(seed, 3, 2).writeFeed(feed, THREADS);
+        return feed;
+    }
+
+    /**
+     * Parse a feed on its own and collect the text of every post in it, replies included
+     * @param feed feed file
+     * @return sorted post texts
+     * @throws Exception If the feed cannot be parsed
+     */
+    private static List<String> postTexts(Path feed) throws Exception {
+        List<String> texts = new ArrayList<String>();
+        Deque<Post> posts = new ArrayDeque<Post>(new Parser().parseThreads(false, feed.toString()));
+        while (!posts.isEmpty()) {
+            Post post = posts.pop();
+            texts.add(post.getPostText());
+            posts.addAll(post.getReplies());
+        }
+        Collections.sort(texts);
+        return texts;
+    }
+
+    /**
+     * Collect the text of every post stored in the stub, i.e. of every key that is a plain id
+     * @return sorted post texts
+     */
+    private List<String> storedPostTexts() {
+        List<String> texts = new ArrayList<String>();
+        try (Jedis jedis = sessionFactory.getJedisPool().getResource()) {
+            for (String key : server.keys()) {
+                if (key.matches("\\d+")) {
+                    texts.add(jedis.hgetAll(key).get("postContent"));
+                }
+            }
+        }
+        Collections.sort(texts);
+        return texts;
+    }
+
+    /*
+     * Checkpoint store that fails one save, as a process dying between persisting a batch and checkpointing it would
+     */
+    private static final class FailingCheckpointStore implements CheckpointStore {
+        private final CheckpointStore store;
+        private final int failingSave;
+        private int saves;
+
+        FailingCheckpointStore(CheckpointStore store, int failingSave) {
+            this.store = store;
+            this.failingSave = failingSave;
+        }
+
+        @Override
+        public IngestCheckpoint load(String feedName) throws IOException {
+            return store.load(feedName);
+        }
+
+        @Override
+        public void save(String feedName, IngestCheckpoint checkpoint) throws IOException {
+            saves += 1;
+            if (saves == failingSave) {
+                throw new IOException("Simulated crash before checkpoint " + saves);
+            }
+            store.save(feedName, checkpoint);
+        }
+
+        @Override
+        public void clear(String feedName) throws IOException {
+            store.clear(feedName);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ecs160.ingest;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.testsupport.RespStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/*
+ * Deduplication of ingested threads against the in-process RESP stub
+ */
+class ThreadDeduplicatorTests {
+    private RespStubServer server;
+    private JedisPool jedisPool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new RespStubServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        jedisPool.close();
+        server.close();
+    }
+
+    @Test
+    void sameContentFromDifferentAuthorsIsKept() {
+        Post first = newPost(1, "at://did:plc:alice/app.bsky.feed.post/1");
+        Post second = newPost(2, "at://did:plc:bob/app.bsky.feed.post/1");
+        assertNotEquals(ThreadDeduplicator.contentHash(first), ThreadDeduplicator.contentHash(second));
+
+        List<String> hashes = new ArrayList<String>();
+        List<Post> unseen = new ThreadDeduplicator(jedisPool).filterUnseen(Arrays.asList(first, second), hashes);
+        assertEquals(2, unseen.size());
+        assertEquals(2, hashes.size());
+    }
+
+    @Test
+    void repeatsWithinAndAcrossBatchesAreSkipped() {
+        ThreadDeduplicator deduplicator = new ThreadDeduplicator(jedisPool);
+        Post original = newPost(1, "at://did:plc:alice/app.bsky.feed.post/1");
+        // Parsed again from another copy of the feed, so under a new id
+        Post copy = newPost(2, "at://did:plc:alice/app.bsky.feed.post/1");
+
+        List<String> hashes = new ArrayList<String>();
+        List<Post> unseen = deduplicator.filterUnseen(Arrays.asList(original, copy), hashes);
+        assertEquals(Arrays.asList(original), unseen);
+        assertEquals(1, hashes.size());
+        deduplicator.markPersisted(hashes);
+
+        List<String> laterHashes = new ArrayList<String>();
+        assertEquals(0, deduplicator.filterUnseen(Arrays.asList(newPost(3, original.getUri())), laterHashes).size());
+        assertEquals(0, laterHashes.size());
+    }
+
+    /**
+     * Create a post with the same creation time and text as every other post of these tests
+     * @param id post id
+     * @param uri AT URI of the post
+     * @return new post
+     */
+    private static Post newPost(int id, String uri) {
+        Post post = new Post(id, 1000L, "same text", 0);
+        post.setUri(uri);
+        return post;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ecs160.moderation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * The Aho-Corasick automaton against the loop it replaced: a case-insensitive contains() per term
+ */
+class TermMatcherTests {
+    // Few distinct chars, so that terms overlap and share prefixes and suffixes, as failure links need;
+    // upper-case, non-ASCII and whitespace chars cover normalization and the root's dense table
+    private static final char[] ALPHABET = "abcAB éÉ中".toCharArray();
+
+    @Test
+    void matchesLikeNaiveLoopOnRandomTermsAndTexts() {
+        Random random = new Random(160L);
+        for (int round = 0; round < 500; round++) {
+            List<String> terms = new ArrayList<String>();
+            int termCount = random.nextInt(8);
+            for (int i = 0; i < termCount; i++) {
+                terms.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            TermMatcher matcher = new TermMatcher(terms);
+
+            for (int i = 0; i < 50; i++) {
+                String text = randomString(random, random.nextInt(30));
+                assertEquals(naiveMatches(terms, text), matcher.matches(text), "terms " + terms + ", text \"" + text + "\"");
+            }
+        }
+    }
+
+    @Test
+    void ignoresCaseAndBlankTerms() {
+        TermMatcher matcher = new TermMatcher(Arrays.asList(" Spam ", "", "   ", "sCaM"));
+        assertEquals(2, matcher.getTermCount());
+        assertTrue(matcher.matches("this is SPAM"));
+        assertTrue(matcher.matches("a scammer"));
+        assertFalse(matcher.matches("spa m"));
+        assertFalse(matcher.matches(null));
+        assertFalse(new TermMatcher(Collections.<String>emptyList()).matches("anything"));
+    }
+
+    /**
+     * Check the text the way moderation did before the automaton, with the same per-char normalization
+     * @param terms banned terms
+     * @param text text to check
+     * @return true if some non-blank term occurs in the text, ignoring case
+     */
+    private static boolean naiveMatches(List<String> terms, String text) {
+        String normalizedText = lowerCase(text);
+        for (String term : terms) {
+            String trimmed = term.trim();
+            if (!trimmed.isEmpty() && normalizedText.contains(lowerCase(trimmed))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lower-case a String one char at a time, as the matcher does
+     * @param value String to lower-case
+     * @return lower-cased String
+     */
+    private static String lowerCase(String value) {
+        StringBuilder lower = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            lower.append(Character.toLowerCase(value.charAt(i)));
+        }
+        return lower.toString();
+    }
+
+    /**
+     * Generate a String of random chars of the alphabet
+     * @param random random source
+     * @param length number of chars
+     * @return random String
+     */
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(chars);
+    }
+}
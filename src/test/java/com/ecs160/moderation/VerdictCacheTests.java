@@ -0,0 +1,60 @@
+package com.ecs160.moderation;
+
+import com.ecs160.testsupport.RespStubServer;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Keys of cached verdicts: texts share a verdict only if the matcher cannot tell them apart
+ */
+class VerdictCacheTests {
+    private final TermMatcher spamMatcher = new TermMatcher(Arrays.asList("spam"));
+
+    @Test
+    void onlyTextsEqualUpToCaseShareAVerdict() {
+        VerdictCache cache = new VerdictCache(VerdictCache.DEFAULT_MAX_SIZE);
+        assertTrue(cache.isBlocked(spamMatcher, "Buy SPAM"));
+        assertTrue(cache.isBlocked(spamMatcher, "buy spam"));
+        assertFalse(cache.isBlocked(spamMatcher, "buy ham"));
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void verdictIsNotServedUnderAnotherRuleSet() {
+        VerdictCache cache = new VerdictCache(VerdictCache.DEFAULT_MAX_SIZE);
+        assertTrue(cache.isBlocked(spamMatcher, "buy spam"));
+        assertFalse(cache.isBlocked(new TermMatcher(Arrays.asList("ham")), "buy spam"));
+        assertEquals(0, cache.getStats().hitCount());
+    }
+
+    @Test
+    void sharedVerdictIsKeyedByFullDigest() throws Exception {
+        try (RespStubServer server = new RespStubServer();
+             JedisPool pool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort())) {
+            VerdictCache writer = new VerdictCache(VerdictCache.DEFAULT_MAX_SIZE);
+            writer.setSharedStore(pool, 60);
+            assertTrue(writer.isBlocked(spamMatcher, "buy spam"));
+
+            Set<String> keys = server.keys();
+            assertEquals(1, keys.size());
+            // SHA-256 in hex, not a 64-bit hash that a crafted text could collide with
+            assertTrue(keys.iterator().next().matches("moderation:verdict:[0-9a-f]{64}"));
+
+            // A cache with an empty local store picks the verdict up from Redis, and only for the same text
+            VerdictCache reader = new VerdictCache(VerdictCache.DEFAULT_MAX_SIZE);
+            reader.setSharedStore(pool, 60);
+            assertTrue(reader.isBlocked(spamMatcher, "BUY SPAM"));
+            assertFalse(reader.isBlocked(spamMatcher, "buy spa"));
+            assertEquals(2, server.keys().size());
+        }
+    }
+}
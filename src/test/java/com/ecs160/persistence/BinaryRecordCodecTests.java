@@ -0,0 +1,68 @@
+package com.ecs160.persistence;
+
+import com.ecs160.BlueSkySchema.Post;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Round trips of records through the binary encoding
+ */
+class BinaryRecordCodecTests {
+    private final BinaryRecordCodec codec = new BinaryRecordCodec();
+
+    @Test
+    void recordsSurviveRoundTrip() throws Exception {
+        ReflectedObjectAttributes attrs = AttributesRegistry.get(Post.class);
+        assertRoundTrip(attrs, record("1714557600000", "hello", "1,2,3"));
+        // Negative and extreme numbers, multi-byte text, and a list id that needs several varint bytes
+        assertRoundTrip(attrs, record("-1", "héllo € 😀", String.valueOf(Integer.MAX_VALUE)));
+        assertRoundTrip(attrs, record(String.valueOf(Long.MIN_VALUE), "", ""));
+        assertRoundTrip(attrs, record(String.valueOf(Long.MAX_VALUE), "a,b", "0"));
+    }
+
+    @Test
+    void recordsOfPostsSurviveRoundTrip() throws Exception {
+        ReflectedObjectAttributes attrs = AttributesRegistry.get(Post.class);
+        Post post = new Post(7, 1000L, "text", 2);
+        post.addReply(new Post(8, 2000L, "reply", 0));
+        post.addReply(new Post(9, 3000L, "reply", 0));
+
+        Map<String, String> record = attrs.getFieldPairs(post);
+        record.put("replies", "8,9");
+        assertRoundTrip(attrs, record);
+    }
+
+    @Test
+    void missingValueDecodesAsEmptyRecord() throws Exception {
+        assertTrue(codec.decode(AttributesRegistry.get(Post.class), null).isEmpty());
+    }
+
+    /**
+     * Build a record of a Post
+     * @param createdAt creation time in epoch milliseconds
+     * @param postContent post text
+     * @param replies comma-separated reply ids
+     * @return record
+     */
+    private static Map<String, String> record(String createdAt, String postContent, String replies) {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("createdAt", createdAt);
+        record.put("postContent", postContent);
+        record.put("replies", replies);
+        return record;
+    }
+
+    /**
+     * Check that a record decodes to what was encoded
+     * @param attrs reflected object attributes of the record's class
+     * @param record record to encode
+     */
+    private void assertRoundTrip(ReflectedObjectAttributes attrs, Map<String, String> record) {
+        assertEquals(record, codec.decode(attrs, codec.encode(attrs, record)));
+    }
+}
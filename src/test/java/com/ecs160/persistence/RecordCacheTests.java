@@ -0,0 +1,48 @@
+package com.ecs160.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/*
+ * Invalidation of RecordCache against loads that read Redis concurrently with a write
+ */
+class RecordCacheTests {
+    private final Map<String, String> record = Collections.singletonMap("postContent", "old");
+
+    @Test
+    void putOfRecordReadBeforeInvalidationIsRefused() {
+        RecordCache cache = new RecordCache(100, Duration.ofMinutes(1));
+        // A load reads the old record, then a write of the same id lands and invalidates before the load caches it
+        long generation = cache.getGeneration("1");
+        cache.invalidate("1");
+        cache.put("1", generation, record);
+        assertNull(cache.get("1"));
+    }
+
+    @Test
+    void putOfRecordReadBeforeInvalidateAllIsRefused() {
+        RecordCache cache = new RecordCache(100, Duration.ofMinutes(1));
+        long generation = cache.getGeneration("1");
+        cache.invalidateAll();
+        cache.put("1", generation, record);
+        assertNull(cache.get("1"));
+    }
+
+    @Test
+    void putOfRecordReadAfterInvalidationIsCached() {
+        RecordCache cache = new RecordCache(100, Duration.ofMinutes(1));
+        cache.invalidate("1");
+        cache.put("1", cache.getGeneration("1"), record);
+        assertEquals(record, cache.get("1"));
+
+        // A later write drops it again
+        cache.invalidate("1");
+        assertNull(cache.get("1"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.ecs160.persistence;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.testsupport.FeedGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the reflective work done per persisted or loaded object: reflecting a class, reading its persisted fields
+ * and setting them from a loaded record. Lives in the persistence package to reach the package-private parts of
+ * ReflectedObjectAttributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReflectionBenchmark {
+    private ReflectedObjectAttributes attrs;
+    private Post post;
+    private Map<String, String> record;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        attrs = AttributesRegistry.get(Post.class);
+        post = new FeedGenerator(160L, 0, 1).generateThreads(1, 7).get(0);
+        record = attrs.getFieldPairs(post);
+        // Replies are left empty, so setFields() measures field access rather than proxy creation
+        record.put("replies", "");
+        // setFields() only needs a session for lazily loaded list items, which this record has none of
+        session = new Session(null);
+    }
+
+    @Benchmark
+    public ReflectedObjectAttributes reflectClass() throws Exception {
+        return new ReflectedObjectAttributes(Post.class);
+    }
+
+    @Benchmark
+    public ReflectedObjectAttributes registryLookup() throws Exception {
+        return AttributesRegistry.get(Post.class);
+    }
+
+    @Benchmark
+    public Map<String, String> getFieldPairs() throws Exception {
+        return attrs.getFieldPairs(post);
+    }
+
+    @Benchmark
+    public Object setFields() throws Exception {
+        Object obj = attrs.generateInstance();
+        attrs.setIdFromString(obj, "7");
+        List<PendingLoad> nextLevel = new ArrayList<PendingLoad>(0);
+        attrs.setFields(session, obj, record, nextLevel);
+        return obj;
+    }
+}
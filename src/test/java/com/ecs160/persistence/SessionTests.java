@@ -0,0 +1,220 @@
+package com.ecs160.persistence;
+
+import com.ecs160.BlueSkySchema.Post;
+import com.ecs160.testsupport.RespStubServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * Persist and load round trips of Session against the in-process RESP stub
+ */
+class SessionTests {
+    private RespStubServer server;
+    private Jedis jedis;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new RespStubServer();
+        jedis = new Jedis(server.getHost(), server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        jedis.close();
+        server.close();
+    }
+
+    @Test
+    void dirtyTrackingSkipsUnchangedObjectWithLegacyFields() throws Exception {
+        jedis.hset("1", legacyRecord("1970-01-01T00:00:01Z", "hello"));
+
+        Session session = new Session(jedis);
+        session.setDirtyTracking(true);
+        session.setAtomic(true);
+        Post loaded = session.load(Post.class, 1);
+        session.add(loaded);
+
+        // The first persist adds the field the legacy record lacks, and nothing else
+        PersistResult upgraded = session.persistAll();
+        assertEquals(1, upgraded.getObjectsWritten());
+        assertEquals(1, upgraded.getFieldsWritten());
+        assertEquals("1000", jedis.hgetAll("1").get("createdAt"));
+
+        PersistResult unchanged = session.persistAll();
+        assertEquals(0, unchanged.getObjectsWritten());
+        assertEquals(1, unchanged.getObjectsSkipped());
+
+        loaded.setPostText("changed");
+        PersistResult changed = session.persistAll();
+        assertEquals(1, changed.getObjectsWritten());
+        assertEquals(1, changed.getFieldsWritten());
+        Map<String, String> record = jedis.hgetAll("1");
+        assertEquals("changed", record.get("postContent"));
+        assertEquals("1970-01-01T00:00:01Z", record.get("dateTime"));
+    }
+
+    @Test
+    void persistWithoutIdFails() {
+        Post post = new Post();
+        post.setPostText("no id");
+        assertThrows(IdException.class, () -> new Session(jedis).persist(Collections.singletonList(post)));
+        assertEquals(0, server.size());
+    }
+
+    @Test
+    void rejectedWriteFailsPersist() throws Exception {
+        // A key written by the binary codec holds a string, which the hash codec's HSET is rejected on
+        Session binary = new Session(jedis);
+        binary.setCodec(new BinaryRecordCodec());
+        binary.persist(Collections.singletonList(new Post(1, 1000L, "binary", 0)));
+
+        for (boolean isAtomic : new boolean[] {false, true}) {
+            Session session = new Session(jedis);
+            session.setAtomic(isAtomic);
+            assertThrows(PersistenceException.class, () -> session.persist(Collections.singletonList(new Post(1, 2000L, "hash", 0))));
+        }
+        assertEquals("binary", binary.load(Post.class, 1).getPostText());
+    }
+
+    @Test
+    void idQueuedTwiceInOneBatchCountsOnce() throws Exception {
+        PersistResult result = new Session(jedis).persist(Arrays.asList(new Post(1, 1000L, "first", 0), new Post(1, 2000L, "second", 0)));
+        assertEquals(1, result.getObjectsWritten());
+        Post post = new Post(1, 0L, "", 0);
+        int fieldCount = Session.toRecord(post, AttributesRegistry.get(Post.class), new ArrayList<Map.Entry<Object, ReflectedObjectAttributes>>()).size();
+        assertEquals(fieldCount, result.getFieldsWritten());
+        assertEquals("second", jedis.hgetAll("1").get("postContent"));
+    }
+
+    @Test
+    void replySharedAcrossPartitionsIsWrittenOnce() throws Exception {
+        ExecutorService flushExecutor = Executors.newFixedThreadPool(4);
+        try (JedisPool jedisPool = new JedisPool(new JedisPoolConfig(), server.getHost(), server.getPort())) {
+            Session session = new Session(jedisPool, flushExecutor, 4);
+            session.setBatchSize(1);
+            Post sharedReply = new Post(100, 1000L, "shared", 0);
+            List<Post> roots = new ArrayList<Post>();
+            for (int i = 0; i < 8; i++) {
+                Post root = new Post(i, 1000L, "root " + i, 1);
+                root.addReply(sharedReply);
+                roots.add(root);
+            }
+
+            PersistResult result = session.persist(roots);
+            assertEquals(roots.size() + 1, result.getObjectsWritten());
+            assertEquals(roots.size() + 1, server.size());
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void keyPrefixKeepsObjectsApart() throws Exception {
+        new Session(jedis).persist(Collections.singletonList(new Post(1, 1000L, "ingested", 0)));
+        Session prefixed = new Session(jedis);
+        prefixed.setKeyPrefix("moderated:post:");
+        prefixed.persist(Collections.singletonList(new Post(1, 2000L, "moderated", 0)));
+
+        assertEquals("ingested", jedis.hgetAll("1").get("postContent"));
+        assertEquals("moderated", jedis.hgetAll("moderated:post:1").get("postContent"));
+        assertEquals("moderated", prefixed.load(Post.class, 1).getPostText());
+    }
+
+    @Test
+    void reserveIdsNeverHandsOutAnIdTwice() throws Exception {
+        Session first = new Session(jedis);
+        Session second = new Session(jedis);
+
+        // Each session reserves a whole block from the shared counter, and hands out ids from it
+        assertEquals(0, first.reserveIds(3));
+        assertEquals(Session.ID_BLOCK_SIZE, second.reserveIds(3));
+        assertEquals(3, first.reserveIds(1));
+        // A range that does not fit in the rest of the block comes from a new block
+        assertEquals(2 * Session.ID_BLOCK_SIZE, first.reserveIds(Session.ID_BLOCK_SIZE));
+        assertEquals(Session.ID_BLOCK_SIZE + 3, second.reserveIds(1));
+    }
+
+    @Test
+    void loadOfMissingRecordFailsAndCachesNothing() throws Exception {
+        Session session = new Session(jedis);
+        assertThrows(PersistenceException.class, () -> session.load(Post.class, 1));
+        assertEquals(0, session.getIdentityMap().size());
+
+        // Once the record exists, the same session reads it instead of returning a blank instance
+        new Session(jedis).persist(Collections.singletonList(new Post(1, 1000L, "hello", 0)));
+        assertEquals("hello", session.load(Post.class, 1).getPostText());
+    }
+
+    @Test
+    void loadOfRecordMissingAFieldFails() throws Exception {
+        jedis.hset("1", Collections.singletonMap("createdAt", "1000"));
+        Session session = new Session(jedis);
+        assertThrows(PersistenceException.class, () -> session.load(Post.class, 1));
+        assertEquals(0, session.getIdentityMap().size());
+    }
+
+    @Test
+    void loadOfLegacyRecordReadsDateTime() throws Exception {
+        jedis.hset("1", legacyRecord("2024-05-01T12:00:00.000+02:00", "legacy"));
+
+        Post post = new Session(jedis).load(Post.class, 1);
+        assertEquals(Post.parseDateTime("2024-05-01T12:00:00.000+02:00"), post.getCreatedAtMillis());
+        assertEquals("2024-05-01T10:00:00Z", post.getDateTime());
+        assertEquals("legacy", post.getPostText());
+    }
+
+    @Test
+    void deepThreadSurvivesPersistAndLoad() throws Exception {
+        // Deep enough that walking the chain recursively would overflow the call stack
+        int depth = 5000;
+        Post thread = new Post(0, 0L, "reply 0", 1);
+        Post parent = thread;
+        for (int i = 1; i < depth; i++) {
+            Post reply = new Post(i, i, "reply " + i, 1);
+            parent.addReply(reply);
+            parent = reply;
+        }
+        new Session(jedis).persist(Collections.singletonList(thread));
+        assertEquals(depth, server.size());
+
+        Post post = new Session(jedis).load(Post.class, 0);
+        for (int i = 0; i < depth; i++) {
+            assertEquals(i, post.getId());
+            assertEquals(i, post.getCreatedAtMillis());
+            assertEquals("reply " + i, post.getPostText());
+            List<Post> replies = post.getReplies();
+            assertEquals(i < depth - 1 ? 1 : 0, replies.size());
+            post = i < depth - 1 ? replies.get(0) : null;
+        }
+    }
+
+    /**
+     * Build the record of a reply-less post as it was written before createdAt replaced the dateTime field
+     * @param dateTime ISO 8601 date & time string
+     * @param postContent post text
+     * @return legacy record
+     */
+    private static Map<String, String> legacyRecord(String dateTime, String postContent) {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("dateTime", dateTime);
+        record.put("postContent", postContent);
+        record.put("replies", "");
+        return record;
+    }
+}
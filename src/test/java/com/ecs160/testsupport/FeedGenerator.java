@@ -0,0 +1,197 @@
+package com.ecs160.testsupport;
+
+import com.ecs160.BlueSkySchema.Post;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Generator of synthetic BlueSky feeds with the same shape as the feed dumps the Parser reads:
+ * {"feed": [{"thread": {"post": {"record": {...}}, "replies": [...]}}, ...]}.
+ * Output depends only on the seed, so benchmark runs compare like with like.
+ *
+ * Can also be run on its own to write a feed file:
+ *   FeedGenerator <output file> <threads> [replies per thread] [reply depth] [seed]
+ */
+public class FeedGenerator {
+    private static final String[] WORDS = {
+            "bluesky", "post", "thread", "reply", "today", "great", "news", "check", "this", "out", "really",
+            "love", "the", "new", "feature", "anyone", "else", "seeing", "spam", "again", "caf\u00e9", "na\u00efve", "\u65e5\u672c",
+    };
+    // 2024-01-01T00:00:00Z; posts are spread over the following year
+    private static final long START_MILLIS = 1704067200000L;
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    private final Random random;
+    private final int repliesPerThread;
+    private final int replyDepth;
+    private int nextId;
+
+    /**
+     * Instantiate a new feed generator
+     * @param seed random seed
+     * @param repliesPerThread number of direct replies of each thread
+     * @param replyDepth number of levels of replies below each thread, at least 1; levels below the first have one reply each
+     */
+    public FeedGenerator(long seed, int repliesPerThread, int replyDepth) {
+        if (replyDepth < 1) {
+            throw new IllegalArgumentException("Reply depth must be at least 1");
+        }
+        this.random = new Random(seed);
+        this.repliesPerThread = repliesPerThread;
+        this.replyDepth = replyDepth;
+        this.nextId = 0;
+    }
+
+    /**
+     * Write a feed with the given number of threads as JSON
+     * @param file file to write
+     * @param threadCount number of threads
+     * @throws IOException If the file cannot be written
+     */
+    public void writeFeed(Path file, int threadCount) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 64 * 1024)) {
+            out.write("{\"feed\":[");
+            for (int i = 0; i < threadCount; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write("{\"thread\":{\"$type\":\"app.bsky.feed.defs#threadViewPost\",\"post\":");
+                writePost(out);
+                out.write(",\"replies\":[");
+                for (int j = 0; j < repliesPerThread; j++) {
+                    if (j > 0) {
+                        out.write(',');
+                    }
+                    writeReply(out, replyDepth - 1);
+                }
+                out.write("]}}");
+            }
+            out.write("]}");
+        }
+    }
+
+    /**
+     * Generate threads in memory, with unique ids starting at the given id
+     * @param threadCount number of threads
+     * @param firstId id of the first generated post
+     * @return generated threads
+     */
+    public List<Post> generateThreads(int threadCount, int firstId) {
+        nextId = firstId;
+        List<Post> threads = new ArrayList<Post>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            Post thread = newPost(repliesPerThread);
+            for (int j = 0; j < repliesPerThread; j++) {
+                Post reply = newPost(replyDepth > 1 ? 1 : 0);
+                thread.addReply(reply);
+                // Levels below the first are single chains
+                Post parent = reply;
+                for (int depth = 1; depth < replyDepth; depth++) {
+                    Post nested = newPost(depth + 1 < replyDepth ? 1 : 0);
+                    parent.addReply(nested);
+                    parent = nested;
+                }
+            }
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    /**
+     * Write a reply with the given number of nested levels below it
+     * @param out writer to write to
+     * @param nestedLevels number of nested levels below the reply
+     * @throws IOException If the reply cannot be written
+     */
+    private void writeReply(Writer out, int nestedLevels) throws IOException {
+        // Written iteratively, so deep replies do not need a deep call stack
+        for (int level = 0; level <= nestedLevels; level++) {
+            out.write("{\"$type\":\"app.bsky.feed.defs#threadViewPost\",\"post\":");
+            writePost(out);
+            if (level < nestedLevels) {
+                out.write(",\"replies\":[");
+            }
+        }
+        for (int level = nestedLevels; level >= 0; level--) {
+            out.write(level < nestedLevels ? "]}" : "}");
+        }
+    }
+
+    /**
+     * Write a "post" object with the fields of a real BlueSky post that the parser skips over
+     * @param out writer to write to
+     * @throws IOException If the post cannot be written
+     */
+    private void writePost(Writer out) throws IOException {
+        String createdAt = Instant.ofEpochMilli(randomMillis()).toString();
+        out.write("{\"uri\":\"at://did:plc:");
+        out.write(Long.toHexString(random.nextLong()));
+        out.write("/app.bsky.feed.post/");
+        out.write(Long.toHexString(random.nextLong()));
+        out.write("\",\"author\":{\"handle\":\"user");
+        out.write(Integer.toString(random.nextInt(100000)));
+        out.write(".bsky.social\"},\"record\":{\"$type\":\"app.bsky.feed.post\",\"createdAt\":\"");
+        out.write(createdAt);
+        out.write("\",\"langs\":[\"en\"],\"text\":\"");
+        out.write(randomText());
+        out.write("\"},\"replyCount\":");
+        out.write(Integer.toString(random.nextInt(50)));
+        out.write(",\"likeCount\":");
+        out.write(Integer.toString(random.nextInt(500)));
+        out.write(",\"indexedAt\":\"");
+        out.write(createdAt);
+        out.write("\"}");
+    }
+
+    /**
+     * Create an in-memory post with a new id
+     * @param replyCount expected number of replies
+     * @return new post
+     */
+    private Post newPost(int replyCount) {
+        Post post = new Post(nextId, randomMillis(), randomText(), replyCount);
+        nextId += 1;
+        return post;
+    }
+
+    private long randomMillis() {
+        return START_MILLIS + (long) (random.nextDouble() * YEAR_MILLIS);
+    }
+
+    /**
+     * Generate post text of up to 300 characters, the BlueSky limit
+     * @return random text
+     */
+    private String randomText() {
+        StringBuilder text = new StringBuilder();
+        int wordCount = 5 + random.nextInt(40);
+        for (int i = 0; i < wordCount && text.length() < 280; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FeedGenerator <output file> <threads> [replies per thread] [reply depth] [seed]");
+            System.exit(1);
+        }
+        int repliesPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int replyDepth = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 160L;
+        new FeedGenerator(seed, repliesPerThread, replyDepth).writeFeed(Paths.get(args[0]), Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,376 @@
+package com.ecs160.testsupport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In-process Redis stand-in speaking RESP2 over a loopback socket, for benchmarks and tests that should not depend
+ * on a Redis installation. It implements just the commands the persistence layer sends (hashes, strings, counters,
+ * sets and MULTI/EXEC), so Jedis, its pipelines and the connection pool run unmodified against it.
+ *
+ * Timings against the stub include real socket round trips and RESP encoding, but no Redis server work, so they
+ * measure the client side of the persistence layer rather than Redis itself. A response delay can be set to stand in
+ * for the network latency of a remote Redis, for benchmarks of I/O-bound callers.
+ */
+public class RespStubServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads;
+    // Keys, hash fields and values are kept as ISO-8859-1 strings, which map every byte to one char and back
+    private final Map<String, Object> data;
+    // Time each connection waits before flushing its replies, as a simulated round trip
+    private volatile long responseDelayNanos;
+
+    /**
+     * Start a stub server on a free loopback port
+     * @throws IOException If the server socket cannot be opened
+     */
+    public RespStubServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.connectionThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "resp-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.data = new ConcurrentHashMap<String, Object>();
+        connectionThreads.submit(this::acceptLoop);
+    }
+
+    /**
+     * Getter for the port the server listens on
+     * @return port number
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Getter for the host the server listens on
+     * @return loopback host address
+     */
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Set the time each connection waits before flushing its replies, which every round trip then takes at least
+     * @param responseDelay simulated round-trip latency, or Duration.ZERO to reply right away
+     */
+    public void setResponseDelay(Duration responseDelay) {
+        this.responseDelayNanos = responseDelay.toNanos();
+    }
+
+    /**
+     * Remove every stored key
+     */
+    public void flushAll() {
+        data.clear();
+    }
+
+    /**
+     * Getter for number of stored keys
+     * @return number of keys
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Getter for the stored keys
+     * @return copy of the keys
+     */
+    public Set<String> keys() {
+        return new HashSet<String>(data.keySet());
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connectionThreads.shutdownNow();
+    }
+
+    /**
+     * Accept connections until the server is closed, serving each on its own thread
+     */
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connectionThreads.submit(() -> serve(socket));
+            } catch (IOException ex) {
+                // Closed while waiting for a connection
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serve the commands of one connection until the client disconnects
+     * @param socket client connection
+     */
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            InputStream in = new BufferedInputStream(client.getInputStream(), 64 * 1024);
+            OutputStream out = new BufferedOutputStream(client.getOutputStream(), 64 * 1024);
+            List<List<String>> queuedCommands = null;
+
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                String name = command.get(0).toUpperCase(Locale.ROOT);
+
+                if (name.equals("MULTI")) {
+                    queuedCommands = new ArrayList<List<String>>();
+                    writeSimple(out, "OK");
+                } else if (name.equals("EXEC") && queuedCommands != null) {
+                    ByteArrayOutputStream replies = new ByteArrayOutputStream();
+                    // The whole transaction is applied under one lock, so that no other client sees part of it
+                    synchronized (data) {
+                        for (List<String> queued : queuedCommands) {
+                            execute(queued, replies);
+                        }
+                    }
+                    writeLine(out, "*" + queuedCommands.size());
+                    replies.writeTo(out);
+                    queuedCommands = null;
+                } else if (name.equals("DISCARD") && queuedCommands != null) {
+                    queuedCommands = null;
+                    writeSimple(out, "OK");
+                } else if (queuedCommands != null) {
+                    queuedCommands.add(command);
+                    writeSimple(out, "QUEUED");
+                } else if (name.equals("QUIT")) {
+                    writeSimple(out, "OK");
+                    out.flush();
+                    return;
+                } else {
+                    execute(command, out);
+                }
+
+                // Replies of pipelined commands are flushed together once the client stops sending
+                if (in.available() == 0) {
+                    delayResponse();
+                    out.flush();
+                }
+            }
+        } catch (IOException ex) {
+            // Client went away
+        }
+    }
+
+    /**
+     * Wait for the configured response delay, if any
+     * @throws IOException If interrupted while waiting, i.e. the server is closing
+     */
+    private void delayResponse() throws IOException {
+        long delayNanos = responseDelayNanos;
+        if (delayNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while delaying a response", ex);
+            }
+        }
+    }
+
+    /**
+     * Execute a single command and write its reply
+     * @param command command name and arguments
+     * @param out stream to write the reply to
+     * @throws IOException If the reply cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    private void execute(List<String> command, OutputStream out) throws IOException {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "PING" -> writeSimple(out, "PONG");
+            case "CLIENT", "SELECT", "FLUSHDB" -> writeSimple(out, "OK");
+            case "FLUSHALL" -> {
+                data.clear();
+                writeSimple(out, "OK");
+            }
+            case "SET" -> {
+                data.put(command.get(1), command.get(2));
+                writeSimple(out, "OK");
+            }
+            case "SETEX" -> {
+                // Expiry is not simulated
+                data.put(command.get(1), command.get(3));
+                writeSimple(out, "OK");
+            }
+            case "GET" -> {
+                Object value = data.get(command.get(1));
+                writeBulk(out, value instanceof String ? (String) value : null);
+            }
+            case "DEL" -> {
+                int removed = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    removed += data.remove(command.get(i)) != null ? 1 : 0;
+                }
+                writeInteger(out, removed);
+            }
+            case "INCRBY" -> {
+                long value;
+                // Increments of one counter are applied one at a time, as Redis does
+                synchronized (data) {
+                    Object current = data.get(command.get(1));
+                    value = (current instanceof String ? Long.parseLong((String) current) : 0L) + Long.parseLong(command.get(2));
+                    data.put(command.get(1), Long.toString(value));
+                }
+                writeInteger(out, value);
+            }
+            case "HSET" -> {
+                if (!isOfType(command.get(1), Map.class)) {
+                    writeWrongType(out);
+                    return;
+                }
+                Map<String, String> hash = (Map<String, String>) data.computeIfAbsent(command.get(1), key -> new ConcurrentHashMap<String, String>());
+                int added = 0;
+                for (int i = 2; i + 1 < command.size(); i += 2) {
+                    added += hash.put(command.get(i), command.get(i + 1)) == null ? 1 : 0;
+                }
+                writeInteger(out, added);
+            }
+            case "HGETALL" -> {
+                if (!isOfType(command.get(1), Map.class)) {
+                    writeWrongType(out);
+                    return;
+                }
+                Object value = data.get(command.get(1));
+                Map<String, String> hash = value instanceof Map ? (Map<String, String>) value : Map.of();
+                writeLine(out, "*" + hash.size() * 2);
+                for (Map.Entry<String, String> field : hash.entrySet()) {
+                    writeBulk(out, field.getKey());
+                    writeBulk(out, field.getValue());
+                }
+            }
+            case "SADD" -> {
+                Set<String> set = (Set<String>) data.computeIfAbsent(command.get(1), key -> ConcurrentHashMap.newKeySet());
+                int added = 0;
+                for (int i = 2; i < command.size(); i++) {
+                    added += set.add(command.get(i)) ? 1 : 0;
+                }
+                writeInteger(out, added);
+            }
+            case "SMISMEMBER" -> {
+                Object value = data.get(command.get(1));
+                Set<String> set = value instanceof Set ? (Set<String>) value : Set.of();
+                writeLine(out, "*" + (command.size() - 2));
+                for (int i = 2; i < command.size(); i++) {
+                    writeInteger(out, set.contains(command.get(i)) ? 1 : 0);
+                }
+            }
+            default -> writeLine(out, "-ERR unknown command '" + command.get(0) + "'");
+        }
+    }
+
+    /**
+     * Check whether a key is unset or holds a value of the given type, as Redis does before a typed command
+     * @param key key to check
+     * @param type type of value the command works on
+     * @return true if the key may be used by the command
+     */
+    private boolean isOfType(String key, Class<?> type) {
+        Object value = data.get(key);
+        return value == null || type.isInstance(value);
+    }
+
+    /**
+     * Read one command, sent as a RESP array of bulk strings
+     * @param in stream to read from
+     * @return command name and arguments, or null if the client disconnected
+     * @throws IOException If the stream cannot be read or is not valid RESP
+     */
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("Expected a RESP array, got '" + (char) type + "'");
+        }
+
+        int argCount = Integer.parseInt(readLine(in));
+        List<String> command = new ArrayList<String>(argCount);
+        for (int i = 0; i < argCount; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a RESP bulk string");
+            }
+            byte[] arg = in.readNBytes(Integer.parseInt(readLine(in)));
+            // Skip the trailing CRLF
+            in.readNBytes(2);
+            command.add(new String(arg, StandardCharsets.ISO_8859_1));
+        }
+        return command;
+    }
+
+    /**
+     * Read a line terminated by CRLF
+     * @param in stream to read from
+     * @return line without the terminator
+     * @throws IOException If the stream ends before the line does
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int next;
+        while ((next = in.read()) != '\r') {
+            if (next == -1) {
+                throw new EOFException();
+            }
+            line.append((char) next);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        writeLine(out, "+" + value);
+    }
+
+    private static void writeWrongType(OutputStream out) throws IOException {
+        writeLine(out, "-WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        writeLine(out, ":" + value);
+    }
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeLine(out, "$-1");
+            return;
+        }
+        writeLine(out, "$" + value.length());
+        writeLine(out, value);
+    }
+}